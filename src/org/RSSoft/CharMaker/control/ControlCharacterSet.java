@@ -188,7 +188,7 @@ public class ControlCharacterSet extends Observable implements ListSelectionList
   public void addCharacter(CharacterDescriptor character)
   {
     try {
-      this.charSet.addCharacter(character.getCharacter(), character.getGrid());
+      this.charSet.addCharacter(character.getCodePoint(), character.getGrid());
       this.setChanged();
       this.notifyObservers();
     } catch (Exception ex) {
@@ -200,13 +200,13 @@ public class ControlCharacterSet extends Observable implements ListSelectionList
    * add a new character consisting of the pure character c and the string
    * description of the character, an empty grid with the size according 
    * to the height and width is constructed and added to the character descriptor
-   * @param c the character to add
+   * @param c the unicode code point of the character to add
    * @param description the string description to the character
    */
-  public void addCharacter(char c, String description)
+  public void addCharacter(int c, String description)
   {
     try {
-      this.charSet.addCharacter(c, description, new DataGrid(charSet.getFontWidth(), charSet.getFontHeight()));
+      this.charSet.addCharacter(c, description, DataGrid.empty(charSet.getFontWidth(), charSet.getFontHeight()));
       this.setChanged();
       this.notifyObservers();
     } catch (Exception ex) {
@@ -218,11 +218,11 @@ public class ControlCharacterSet extends Observable implements ListSelectionList
    * add a new character consisting of the pure character c and the string
    * description of the character, an empty grid with the size according 
    * to the height and width is constructed and added to the character descriptor
-   * @param c the character to add
+   * @param c the unicode code point of the character to add
    * @param description the string description to the character
    * @param width the width of the character grid
    */
-  public void addCharacter(char c, String description, int width)
+  public void addCharacter(int c, String description, int width)
   {
     try {
       if (this.charSet.isVariableWidth())
@@ -354,7 +354,7 @@ public class ControlCharacterSet extends Observable implements ListSelectionList
         }
         case MODE_EDIT: {
         try {
-          this.getSelectedCharacterDescriptor().setCharacter(d.character);
+          this.getSelectedCharacterDescriptor().setCodePoint(d.character);
           this.getSelectedCharacterDescriptor().setDescription(d.description);
           if (d.width != this.getSelectedCharacterDescriptor().getWidth())
           {
@@ -118,6 +118,8 @@ public class ControlExit extends WindowAdapter implements ActionListener {
       }
       else
       {
+        this.saveController.finishSaving();
+        this.saveController.discardJournal();
         window.dispose();
         System.exit(0);
       }
@@ -129,6 +131,8 @@ public class ControlExit extends WindowAdapter implements ActionListener {
     else if (e.getSource().equals(this.buttonNo))
     {
       this.dialog.closeDialog();
+      this.saveController.finishSaving();
+      this.saveController.discardJournal();
       this.window.dispose();
       System.exit(0);
     }
@@ -147,6 +151,8 @@ public class ControlExit extends WindowAdapter implements ActionListener {
     }
     else
     {
+      this.saveController.finishSaving();
+      this.saveController.discardJournal();
       window.dispose();
       System.exit(0);
     }
@@ -40,8 +40,15 @@ public class ControlHeaderWriter
  
   //private ControlFileOperation fileController;
   
+  /**
+   * the writer is kept, so writing the same settings again only encodes
+   * the characters changed since
+   */
+  private HeaderWriter writer;
+  
   public ControlHeaderWriter()
   {
+    this.writer = null;
   }
   
   /**
@@ -53,7 +60,9 @@ public class ControlHeaderWriter
    */
   public void writeOut(CharacterSet charset, FontSettings settings, String file)
   {    
-    HeaderWriter writer = new HeaderWriter(settings);
+    if (this.writer == null || !this.writer.usesSettings(settings)) {
+      this.writer = new HeaderWriter(settings);
+    }
     charset.setFontName(settings.fontName);
     try {
       writer.writeHeader(charset, new File(file), settings.commentPreview);
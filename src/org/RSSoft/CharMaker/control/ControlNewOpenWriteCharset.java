@@ -19,29 +19,42 @@
  */
 package org.RSSoft.CharMaker.control;
 
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import org.RSSoft.CharMaker.control.models.FontSettings;
+import org.RSSoft.CharMaker.core.Binarizer;
+import org.RSSoft.CharMaker.core.BDFReader;
 import org.RSSoft.CharMaker.core.BitmapReader;
 import org.RSSoft.CharMaker.core.DataGrid;
+import org.RSSoft.CharMaker.core.FloydSteinbergBinarizer;
+import org.RSSoft.CharMaker.core.FontRasterizer;
+import org.RSSoft.CharMaker.core.OrderedDitherBinarizer;
+import org.RSSoft.CharMaker.core.OtsuBinarizer;
+import org.RSSoft.CharMaker.core.PCFReader;
+import org.RSSoft.CharMaker.core.PSFReader;
+import org.RSSoft.CharMaker.core.ThresholdBinarizer;
 import org.RSSoft.CharMaker.core.character.CharacterSet;
+import org.RSSoft.CharMaker.core.character.CharacterSetFile;
+import org.RSSoft.CharMaker.core.character.CharacterSetJournal;
+import org.RSSoft.CharMaker.core.character.GlyphOutlines;
 import org.RSSoft.CharMaker.util.RSLogger;
 import org.RSSoft.CharMaker.view.CharMakerWindow;
 
@@ -51,10 +64,16 @@ import org.RSSoft.CharMaker.view.CharMakerWindow;
  *         values
  *  -Open (bitmap): attempts to read a xml file and the associated bitmap file, 
  *                    constructs a new character set containing all ascii values
- *                    found in the xml
- *  -Open (saved project): deserialize a saved character set from file
- *  -Save (project): serialize the current character set to file
+ *                    found in the xml. A TrueType or OpenType font is
+ *                    rendered from its outlines at a size and for code
+ *                    points asked for, the set keeps the outlines,
+ *                    a BDF, PCF or PSF (console) font is read as it is
+ *  -Open (saved project): read a saved character set from file
+ *  -Save (project): write the current character set to a .cmfnt file
  *  -Write (Header): writes a c header file with all characters in the set
+ * While a character set read from or saved to a file is edited, its changes
+ * are appended to the journal of the file every few seconds, see
+ * CharacterSetJournal.
  * @author richard
  */
 public class ControlNewOpenWriteCharset implements ActionListener, Observer
@@ -88,6 +107,24 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
   private final ControlFontSettings fontSettings;
   private final ControlFileIO fileController;
 
+  /**
+   * the interval in ms the changes are appended to the journal
+   */
+  private final int JOURNAL_INTERVAL = 2000;
+  private final Timer journalTimer;
+  private CharacterSetJournal journal;
+  
+  /**
+   * the time in s to wait for a save to finish when the program exits
+   */
+  private final int SAVE_TIMEOUT = 60;
+  private final ExecutorService saveExecutor;
+
+  /**
+   * decides the pixels set when a bitmap font is imported
+   */
+  private Binarizer binarizer;
+
   /**
    * construct a new controller for New, open, write operation
    * 
@@ -105,6 +142,7 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
   {
     this.view = view;
     this.list = list;
+    this.binarizer = ThresholdBinarizer.DEFAULT;
 
     this.buttonNew = view.getButtonNew();
     this.itemNew = view.getMenuItemNewCharacterSet();
@@ -136,6 +174,16 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
     this.gridController = gridController;
     this.fileController = fileController;
     this.fontSettings = settings;
+
+    this.journal = null;
+    this.journalTimer = new Timer(JOURNAL_INTERVAL, this);
+    this.journalTimer.start();
+    
+    this.saveExecutor = Executors.newSingleThreadExecutor((r) -> {
+      Thread thread = new Thread(r, "save character set");
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   /**
@@ -158,52 +206,244 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
   }
 
   /**
-   * save the character set by serializing it to a file
-   * @param toFile the file path of the file to serialize the character set to
-   * @throws IOException in case of IO Error
+   * save the character set and the font settings to a .cmfnt file. A
+   * snapshot of the set is written in the background, the progress is shown
+   * in the window title. The set can be edited meanwhile, the changes made
+   * after the snapshot stay unsaved and are kept in the journal.
+   * @param toFile the file path of the file to write the character set to
    */
-  public void saveCharacterSet(String toFile) throws IOException
+  public void saveCharacterSet(String toFile)
   {
-    FileOutputStream fos = new FileOutputStream(new File(toFile));
-    BufferedOutputStream buffout = new BufferedOutputStream(fos);
-    ObjectOutputStream oos = new ObjectOutputStream(buffout);
-    oos.writeObject(this.list.getCurrentCharacterSet());
-    oos.writeObject(this.fontSettings.getFontSettings());
-    oos.flush();
-    oos.close();
+    CharacterSet set = this.list.getCurrentCharacterSet();
+    long revision = set.getRevision();
+    CharacterSetFile file = CharacterSetFile.snapshot(set, this.fontSettings.getFontSettings());
+    File target = new File(toFile);
     
-    this.list.getCurrentCharacterSet().setSaved();
+    this.view.setTitle(String.format("saving %s", target.getName()));
+    this.saveExecutor.execute(() -> {
+      try {
+        file.write(target, (percent) -> SwingUtilities.invokeLater(
+                () -> this.view.setTitle(String.format("saving %s %d%%", target.getName(), percent))));
+        SwingUtilities.invokeLater(() -> this.saved(set, revision, target));
+      } catch (IOException ex) {
+        RSLogger.getLogger().log(Level.SEVERE, String.format("cannot save %s", target.getName()), ex);
+        SwingUtilities.invokeLater(() -> this.view.setTitle(String.format("%s not saved", target.getName())));
+      }
+    });
+  }
+  
+  /**
+   * called when a snapshot of a character set was written
+   * @param set the character set
+   * @param revision the revision of the snapshot
+   * @param target the file written
+   */
+  private void saved(CharacterSet set, long revision, File target)
+  {
+    set.setSaved(revision);
+    this.view.setTitle(target.getName());
+    
+    // the journal starts with the changes made while saving. The journal of
+    // the target is not deleted first, reset replaces it atomically, so a
+    // crash in between does not lose these changes
+    boolean current = this.journal != null
+            ? this.journal.getCharacterSet() == set : this.list.getCurrentCharacterSet() == set;
+    CharacterSetJournal savedJournal;
+    if (current) {
+      if (this.journal != null && this.journal.getFontFile().getAbsoluteFile().equals(target.getAbsoluteFile()))
+        this.closeJournal();
+      else
+        this.discardJournal();
+      this.journal = new CharacterSetJournal(target);
+      savedJournal = this.journal;
+    } else {
+      // another set was opened while saving, its journal is left alone
+      savedJournal = new CharacterSetJournal(target);
+    }
+    try {
+      savedJournal.reset(set, revision);
+    } catch (IOException ex) {
+      RSLogger.getLogger().log(Level.SEVERE, null, ex);
+    }
+    if (!current)
+      savedJournal.close();
+  }
+  
+  /**
+   * waits for the character sets being saved to be written, to be called
+   * before the program exits
+   */
+  public void finishSaving()
+  {
+    this.saveExecutor.shutdown();
+    try {
+      if (!this.saveExecutor.awaitTermination(SAVE_TIMEOUT, TimeUnit.SECONDS)) {
+        RSLogger.getLogger().log(Level.SEVERE, "saving the character set did not finish");
+      }
+    } catch (InterruptedException ex) {
+      RSLogger.getLogger().log(Level.SEVERE, null, ex);
+    }
   }
 
   /**
-   * load an existing character set by deserializing it from a file
+   * load an existing character set from a .cmfnt file, files serialized by
+   * older versions are read as well
    * @param fromFile the file to read from
    * @throws FileNotFoundException in case parameter fromFile is erroneous
    * @throws IOException in case of IO Error
    */
   public void loadCharacterSet(String fromFile) throws FileNotFoundException, IOException
   {
+    CharacterSetFile file = CharacterSetFile.read(new File(fromFile));
+    if (file.getFontSettings() != null) {
+      fontSettings.setFontSettings(file.getFontSettings());
+    }
+    
+    this.closeJournal();
+    this.journal = new CharacterSetJournal(new File(fromFile));
+    int recovered = this.journal.open(file.getCharacterSet());
+    if (recovered > 0) {
+      RSLogger.getLogger().log(Level.INFO, String.format("%d unsaved changes recovered from the journal", recovered));
+    }
+    this.list.setCurrentCharacterSet(file.getCharacterSet());
+  }
+  
+  /**
+   * appends the changes of the current character set to its journal. The
+   * journal is closed when another character set became the current one.
+   */
+  private void appendJournal()
+  {
+    if (this.journal == null)
+      return;
+    if (this.journal.getCharacterSet() != this.list.getCurrentCharacterSet()) {
+      this.closeJournal();
+      return;
+    }
     try {
-      FileInputStream fis = new FileInputStream(new File(fromFile));
-      BufferedInputStream buffin = new BufferedInputStream(fis);
-      ObjectInputStream ois = new ObjectInputStream(buffin);
-      CharacterSet charSet = (CharacterSet) ois.readObject();
-      
-      try {
-          FontSettings settings = (FontSettings)ois.readObject();
-          fontSettings.setFontSettings(settings);
-      } catch (IOException ex1) {
-          RSLogger.getLogger().log(Level.INFO, "file was saved with an older version...", ex1);
+      this.journal.append();
+    } catch (IOException ex) {
+      RSLogger.getLogger().log(Level.SEVERE, null, ex);
+    }
+  }
+  
+  /**
+   * closes the journal, its file is kept to recover the changes when the
+   * character set is opened next time
+   */
+  private void closeJournal()
+  {
+    if (this.journal != null) {
+      this.journal.close();
+      this.journal = null;
+    }
+  }
+  
+  /**
+   * deletes the journal, the unsaved changes are dropped
+   */
+  public void discardJournal()
+  {
+    if (this.journal != null) {
+      this.journal.delete();
+      this.journal = null;
+    }
+  }
+  
+  /**
+   * asks for the size and the characters to render of a TrueType or
+   * OpenType font and renders them into a new character set
+   * @param file the font file
+   */
+  private void rasterizeFont(File file)
+  {
+    String size = JOptionPane.showInputDialog(view, "Size in pixel", "16");
+    if (size == null)
+      return;
+    String ranges = JOptionPane.showInputDialog(view, "Code points (like 0x20-0x7E, 0x4E00-0x9FFF)", "0x20-0x7E");
+    if (ranges == null)
+      return;
+    try {
+      Font font = FontRasterizer.loadFont(file);
+      int pixelSize = Integer.parseInt(size.trim());
+      if (pixelSize <= 0)
+        throw new Exception(String.format("the size %d is not positive", pixelSize));
+      // the set is backed by the outlines, so it keeps them when it is saved
+      // and edited characters can be reverted to the rendered outline
+      int threshold = this.binarizer instanceof ThresholdBinarizer
+              ? ((ThresholdBinarizer) this.binarizer).getThreshold() : ThresholdBinarizer.DEFAULT.getThreshold();
+      GlyphOutlines outlines = GlyphOutlines.fromFont(font, FontRasterizer.parseCodePoints(ranges));
+      this.list.setCurrentCharacterSet(outlines.createSet(pixelSize, threshold));
+    } catch (Exception ex) {
+      RSLogger.getLogger().log(Level.WARNING, null, ex);
+      JOptionPane.showMessageDialog(view, ex.getMessage(), "Cannot render font", JOptionPane.WARNING_MESSAGE);
+    }
+  }
+  
+  /**
+   * asks for the binarizer, the channel and the threshold to import a bitmap
+   * font with, the choice is kept for the next import
+   * @return false if the import was cancelled
+   */
+  private boolean chooseBinarizer()
+  {
+    String methods[] = { "Threshold", "Otsu threshold", "Ordered dither", "Floyd-Steinberg dither" };
+    String current = this.binarizer instanceof OtsuBinarizer ? methods[1]
+            : this.binarizer instanceof OrderedDitherBinarizer ? methods[2]
+            : this.binarizer instanceof FloydSteinbergBinarizer ? methods[3] : methods[0];
+    Object method = JOptionPane.showInputDialog(view, "Binarizer", "Import bitmap font",
+            JOptionPane.QUESTION_MESSAGE, null, methods, current);
+    if (method == null)
+      return false;
+    String channels[] = { "Luminance", "Channel 0", "Channel 1", "Channel 2", "Channel 3" };
+    Object channelName = JOptionPane.showInputDialog(view, "Channel", "Import bitmap font",
+            JOptionPane.QUESTION_MESSAGE, null, channels, channels[Math.min(this.binarizer.getChannel() + 1, channels.length - 1)]);
+    if (channelName == null)
+      return false;
+    int channel = Arrays.asList(channels).indexOf(channelName) - 1;
+    try {
+      if (methods[0].equals(method))
+      {
+        int initial = this.binarizer instanceof ThresholdBinarizer
+                ? ((ThresholdBinarizer) this.binarizer).getThreshold() : ThresholdBinarizer.DEFAULT.getThreshold();
+        String threshold = JOptionPane.showInputDialog(view, "Threshold (0 to 255)", initial);
+        if (threshold == null)
+          return false;
+        int value = Integer.parseInt(threshold.trim());
+        if (value < 0 || value > 255)
+          throw new Exception(String.format("the threshold %d is not within 0 to 255", value));
+        this.binarizer = new ThresholdBinarizer(channel, value);
       }
-      ois.close();
-
-      charSet.validate();
-      this.list.setCurrentCharacterSet(charSet);
-    } catch (ClassNotFoundException cnfe)
-    {
-      //todo: show error message
-      RSLogger.getLogger().log(Level.SEVERE, null, cnfe);
+      else if (methods[1].equals(method))
+        this.binarizer = new OtsuBinarizer(channel);
+      else if (methods[2].equals(method))
+        this.binarizer = new OrderedDitherBinarizer(channel);
+      else
+        this.binarizer = new FloydSteinbergBinarizer(channel);
+    } catch (Exception ex) {
+      RSLogger.getLogger().log(Level.WARNING, null, ex);
+      JOptionPane.showMessageDialog(view, ex.getMessage(), "Cannot import font", JOptionPane.WARNING_MESSAGE);
+      return false;
     }
+    return true;
+  }
+  
+  /**
+   * returns the binarizer used to import bitmap fonts
+   * @return the binarizer, ThresholdBinarizer.DEFAULT unless set
+   */
+  public Binarizer getBinarizer()
+  {
+    return this.binarizer;
+  }
+  
+  /**
+   * sets the binarizer used to import bitmap fonts
+   * @param binarizer decides the pixels set, like a threshold or a dither
+   */
+  public void setBinarizer(Binarizer binarizer)
+  {
+    this.binarizer = binarizer;
   }
   
   /**
@@ -230,7 +470,11 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
   @Override
   public void actionPerformed(ActionEvent e)
   {
-    if (e.getSource() == this.buttonNew || e.getSource() == this.itemNew)
+    if (e.getSource() == this.journalTimer)
+    {
+      this.appendJournal();
+    }
+    else if (e.getSource() == this.buttonNew || e.getSource() == this.itemNew)
     {
       this.operation = OPERATION_NEW;
       this.gridController.addObserver(this);
@@ -240,7 +484,8 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
     {
       this.operation = OPERATION_OPEN_XML;
       this.fileController.addObserver(this);
-      FileFilter filter = new FileNameExtensionFilter("XML Font", "fnt", "*");
+      FileFilter filter = new FileNameExtensionFilter("BMFont (xml, text, binary), TrueType, OpenType, BDF, PCF, PSF",
+              "fnt", "ttf", "otf", "bdf", "pcf", "psf", "psfu", "gz", "*");
       this.fileController.showOpenDialog(filter);
     }
     else if (e.getSource() == this.buttonWrite_CHeader || e.getSource() == this.itemWrite_CHeader)
@@ -274,14 +519,16 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
           CharacterSet set = new CharacterSet(x, y, name);
           if (this.gridController.isCompleteCharacterSet())
           {
+            set.beginUpdate();
             for (char c = ' '; c <= '~'; c += 1)
             {
               try {
-                set.addCharacter(c, new DataGrid(x, y));
+                set.addCharacter(c, DataGrid.empty(x, y));
               } catch (Exception ex) {
                 RSLogger.getLogger().log(Level.WARNING, null, ex);
               }
             }
+            set.commitUpdate();
           }
           list.setCurrentCharacterSet(set);
         }
@@ -293,7 +540,19 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
         if (this.fileController.getApproveOption() == JFileChooser.APPROVE_OPTION)
         {
           File f = new File(this.fileController.getFile());
-          BitmapReader.readBitmap(f, this.list);
+          String name = f.getName().toLowerCase();
+          if (name.endsWith(".gz"))
+            name = name.substring(0, name.length() - 3);
+          if (name.endsWith(".ttf") || name.endsWith(".otf"))
+            this.rasterizeFont(f);
+          else if (name.endsWith(".bdf"))
+            BDFReader.readBDF(f, this.list);
+          else if (name.endsWith(".pcf"))
+            PCFReader.readPCF(f, this.list);
+          else if (name.endsWith(".psf") || name.endsWith(".psfu"))
+            PSFReader.readPSF(f, this.list);
+          else if (this.chooseBinarizer())
+            BitmapReader.readBitmap(f, this.list, this.binarizer);
         }        
       } break;
       
@@ -316,18 +575,14 @@ public class ControlNewOpenWriteCharset implements ActionListener, Observer
             RSLogger.getLogger().log(Level.SEVERE, null, ex);
           }
         }
-      }
+      } break;
       
       case OPERATION_SAVE: {
         this.fileController.deleteObserver(this);
         if (this.fileController.getApproveOption() == JFileChooser.APPROVE_OPTION) {
-          try {
-            this.saveCharacterSet(fileController.getFile());
-          } catch (IOException ex) {
-            RSLogger.getLogger().log(Level.SEVERE, null, ex);
-          }
+          this.saveCharacterSet(fileController.getFile());
         }
-      }
+      } break;
       default: break;
     }
     this.operation = NOOPERATION;
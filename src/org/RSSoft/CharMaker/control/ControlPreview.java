@@ -132,7 +132,7 @@ public class ControlPreview implements ActionListener {
    * if the character is not in the list, nothing is drawn
    * @param c 
    */
-  public void addCharacter(char c)
+  public void addCharacter(int c)
   {
     CharacterDescriptor ch = this.charsetController.getCurrentCharacterSet().getCharacter(c);
     if (ch != null)
@@ -146,7 +146,7 @@ public class ControlPreview implements ActionListener {
     if (e.getSource() == this.buttonAdd)
     {
       String str = this.textAreaPreviewText.getText();
-      for (char c : str.toCharArray())
+      for (int c : str.codePoints().toArray())
       {
         if (c=='\n')
         {
@@ -97,8 +97,8 @@ public class ControlShowCharacterDialog extends DialogShowBaseClass implements A
     this.spinnerHex = view.getDialogSpinnerCharacterHex();
     this.spinnerColumns = view.getDialogSpinnerColumns();
     
-    this.spinnerModelDecimal = new SpinnerDecimalModel(0, 255);
-    this.spinnerModelHex = new SpinnerHexaModel(0, 255);
+    this.spinnerModelDecimal = new SpinnerDecimalModel(0, Character.MAX_CODE_POINT);
+    this.spinnerModelHex = new SpinnerHexaModel(0, Character.MAX_CODE_POINT);
     this.spinnerModelColumns = new SpinnerDecimalModel(1, 32);
     
     this.spinnerInt.setModel(spinnerModelDecimal);
@@ -147,17 +147,17 @@ public class ControlShowCharacterDialog extends DialogShowBaseClass implements A
   /**
    * to be called internally
    * sets the dialog's character to c
-   * @param c the character to be shown by the two spinner, the field character,
+   * @param c the unicode code point to be shown by the two spinner, the field character,
    * and the field description
    */
-  private void setCharacterChar(char c)
+  private void setCharacterChar(int c)
   {
     this.spinnerHex.removeChangeListener(this);
     this.spinnerInt.removeChangeListener(this);
     
-    this.textFieldCharacter.setText(String.format("%c", c));
-    this.spinnerModelDecimal.setValue((int) c);
-    this.spinnerModelHex.setValue((int) c);
+    this.textFieldCharacter.setText(new String(Character.toChars(c)));
+    this.spinnerModelDecimal.setValue(c);
+    this.spinnerModelHex.setValue(c);
     
     this.textFieldDescription.setText(Char2Description.getDescription(c));
     
@@ -173,8 +173,8 @@ public class ControlShowCharacterDialog extends DialogShowBaseClass implements A
    */
   private void setCharacterDec(int d)
   {
-    if (d <= 0xFF) {
-      this.setCharacterChar((char) d);
+    if (Character.isValidCodePoint(d)) {
+      this.setCharacterChar(d);
     }
   }
   
@@ -192,7 +192,7 @@ public class ControlShowCharacterDialog extends DialogShowBaseClass implements A
     this.spinnerModelColumns.setDecimalValue(width);
     if (desc != null)
     {
-      this.setCharacterChar(desc.getCharacter());
+      this.setCharacterChar(desc.getCodePoint());
       this.textFieldDescription.setText(desc.getDescriptor());
       this.spinnerModelColumns.setDecimalValue(desc.getWidth());
     }
@@ -245,7 +245,7 @@ public class ControlShowCharacterDialog extends DialogShowBaseClass implements A
     }
     else if (e.getSource() == this.buttonOK)
     {
-      char c = this.textFieldCharacter.getText().charAt(0);
+      int c = this.textFieldCharacter.getText().codePointAt(0);
       this.characterData.character = c;
       if (this.textFieldDescription.getText().isEmpty()) {
         this.characterData.description = Char2Description.getDescription(c);
@@ -258,7 +258,7 @@ public class ControlShowCharacterDialog extends DialogShowBaseClass implements A
     }
     else if (e.getSource() == this.textFieldCharacter)
     {
-      this.characterData.character = this.textFieldCharacter.getText().charAt(0);
+      this.characterData.character = this.textFieldCharacter.getText().codePointAt(0);
       this.setCharacterChar(this.characterData.character);
     }   
   }
@@ -22,7 +22,7 @@ package org.RSSoft.CharMaker.control.models;
 /**
  * this class is a collection of data regarding character data.
  * Fields:
- *  -character: the character (byte), example: ':'
+ *  -character: the unicode code point of the character, example: ':'
  *  -description: a description / name of the character, example "colon"
  *  -width: the width in pixels the character takes up in the grid
  * 
@@ -33,7 +33,7 @@ package org.RSSoft.CharMaker.control.models;
  */
 public class CharacterData {
   
-  public char character;
+  public int character;
   public String description;
   public int width;
   
@@ -91,4 +91,24 @@ public class FontSettings implements Serializable {
       scanDirection = SCANDIRECTION_VERTICAL_OVER_HORIZONTAL | SCANDIRECTION_LEFT_RIGHT | SCANDIRECTION_UP_DOWN;
   }
   
+  /**
+   * construct a copy of settings
+   * @param settings the settings to copy
+   */
+  public FontSettings(FontSettings settings){
+      rotation = settings.rotation;
+      bitOrder = settings.bitOrder;
+      endianOrder = settings.endianOrder;
+      alignment = settings.alignment;
+      mirrorHorizontal = settings.mirrorHorizontal;
+      mirrorVertical = settings.mirrorVertical;
+      commentPreview = settings.commentPreview;
+      fontName = settings.fontName;
+      dataType = settings.dataType;
+      bits = settings.bits;
+      scanDirection = settings.scanDirection;
+      organizedInColumns = settings.organizedInColumns;
+      invert = settings.invert;
+  }
+  
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * This class reads a page image of a bitmap font band by band, so only the
+ * rows holding the characters being converted are decoded into memory.
+ * Only the size is read when the page is constructed, every call to read
+ * opens the file anew, so bands can be read by several threads at once.
+ * @author Richard
+ */
+class AtlasPage
+{
+  private final File file;
+  private final int width;
+  private final int height;
+
+  /**
+   * construct a page, the image header is read to get its size
+   * @param file the image file
+   * @throws IOException in case the file cannot be read or has no image reader
+   */
+  AtlasPage(File file) throws IOException
+  {
+    this.file = file;
+    try (ImageInputStream in = openStream(file))
+    {
+      ImageReader reader = getReader(in, file);
+      try
+      {
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+      }
+      finally
+      {
+        reader.dispose();
+      }
+    }
+  }
+
+  private static ImageInputStream openStream(File file) throws IOException
+  {
+    ImageInputStream in = ImageIO.createImageInputStream(file);
+    if (in == null)
+      throw new IOException(String.format("cannot open image %s", file.getAbsolutePath()));
+    return in;
+  }
+
+  private static ImageReader getReader(ImageInputStream in, File file) throws IOException
+  {
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+    if (!readers.hasNext())
+      throw new IOException(String.format("no image reader for %s", file.getAbsolutePath()));
+    ImageReader reader = readers.next();
+    reader.setInput(in, true, true);
+    return reader;
+  }
+
+  /**
+   * returns the width of the page
+   * @return the width in pixel
+   */
+  int getWidth()
+  {
+    return this.width;
+  }
+
+  /**
+   * returns the height of the page
+   * @return the height in pixel
+   */
+  int getHeight()
+  {
+    return this.height;
+  }
+
+  /**
+   * decodes a band of rows of the page in its whole width
+   * @param y the first row
+   * @param rows the number of rows, clipped to the page
+   * @return the image of the band, its row 0 is row y of the page
+   * @throws IOException in case of IO Error
+   */
+  BufferedImage read(int y, int rows) throws IOException
+  {
+    try (ImageInputStream in = openStream(file))
+    {
+      ImageReader reader = getReader(in, file);
+      try
+      {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (y > 0 || y + rows < height)
+          param.setSourceRegion(new Rectangle(0, y, width, Math.min(rows, height - y)));
+        return reader.read(0, param);
+      }
+      finally
+      {
+        reader.dispose();
+      }
+    }
+  }
+}
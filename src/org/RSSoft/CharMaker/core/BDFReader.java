@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import org.RSSoft.CharMaker.control.ControlCharacterSet;
+import org.RSSoft.CharMaker.core.character.CharacterSet;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * this class holds static functions to read an X11 BDF font (Glyph Bitmap
+ * Distribution Format 2.1) into a character set. The file is read line by
+ * line as bytes, without a string per line, the hex rows of a glyph are
+ * decoded into a byte buffer that is
+ * converted into a packed grid at ENDCHAR, so only one glyph is held
+ * undecoded at a time. The encodings are taken as unicode code points,
+ * glyphs without encoding are skipped.
+ * @author Richard
+ */
+public class BDFReader
+{
+  private BDFReader() {}
+  
+  /**
+   * the state of the glyph being read
+   */
+  private static class Glyph
+  {
+    int codePoint;
+    int advance;
+    int width;
+    int height;
+    int left;
+    int bottom;
+    int stride;
+    int row;
+    byte bitmap[] = new byte[256];
+    ByteBuffer buffer = ByteBuffer.wrap(bitmap);
+    
+    void start()
+    {
+      codePoint = -1;
+      advance = -1;
+      width = 0;
+      height = 0;
+      left = 0;
+      bottom = 0;
+      row = 0;
+    }
+    
+    void bitmap()
+    {
+      stride = (width + 7) >>> 3;
+      if (stride * height > bitmap.length)
+      {
+        bitmap = new byte[stride * height];
+        buffer = ByteBuffer.wrap(bitmap);
+      }
+      Arrays.fill(bitmap, 0, stride * height, (byte) 0);
+    }
+  }
+  
+  /**
+   * reads a stream line by line into a reused byte array
+   */
+  private static class LineReader
+  {
+    private final InputStream in;
+    private final byte buffer[] = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    byte line[] = new byte[256];
+    int length = 0;
+    int number = 0;
+    
+    LineReader(InputStream in)
+    {
+      this.in = in;
+    }
+    
+    /**
+     * reads the next line, without the line break
+     * @return false at the end of the stream
+     */
+    boolean next() throws IOException
+    {
+      length = 0;
+      while (true)
+      {
+        if (position == limit)
+        {
+          limit = Math.max(0, in.read(buffer));
+          position = 0;
+          if (limit == 0)
+          {
+            if (length == 0)
+              return false;
+            break;
+          }
+        }
+        byte b = buffer[position++];
+        if (b == '\n')
+          break;
+        if (length == line.length)
+          line = Arrays.copyOf(line, 2 * length);
+        line[length++] = b;
+      }
+      if (length > 0 && line[length - 1] == '\r')
+        length -= 1;
+      number += 1;
+      return true;
+    }
+    
+    boolean startsWith(String keyword)
+    {
+      if (length < keyword.length())
+        return false;
+      for (int i = 0; i < keyword.length(); i += 1)
+      {
+        if (line[i] != keyword.charAt(i))
+          return false;
+      }
+      return true;
+    }
+    
+    /**
+     * returns the index of the first space, the length if there is none
+     */
+    int space()
+    {
+      for (int i = 0; i < length; i += 1)
+      {
+        if (line[i] == ' ')
+          return i;
+      }
+      return length;
+    }
+    
+    String text(int from, int to)
+    {
+      from = Math.min(from, to);
+      return new String(line, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+  }
+  
+  /**
+   * reads a BDF font and makes it the current character set
+   * @param file the .bdf file, may be compressed with gzip (.bdf.gz)
+   * @param charaListController the controller the character set is set to
+   */
+  public static void readBDF(File file, ControlCharacterSet charaListController)
+  {
+    try {
+      CharacterSet charSet = read(file);
+      if (charaListController != null)
+        charaListController.setCurrentCharacterSet(charSet);
+    } catch (IOException | RuntimeException ex) {
+      RSLogger.getLogger().log(Level.WARNING, "", ex);
+    }
+  }
+  
+  /**
+   * reads a BDF font into a new character set of variable width. The cells
+   * are as high as FONT_ASCENT plus FONT_DESCENT (the font bounding box if
+   * they are missing) and as wide as the DWIDTH of the glyph.
+   * @param file the .bdf file, may be compressed with gzip (.bdf.gz)
+   * @return the character set
+   * @throws IOException in case of IO Error or a malformed file
+   */
+  public static CharacterSet read(File file) throws IOException
+  {
+    InputStream stream = new FileInputStream(file);
+    if (file.getName().toLowerCase().endsWith(".gz"))
+    {
+      try {
+        stream = new GZIPInputStream(stream, 1 << 16);
+      } catch (IOException ex) {
+        stream.close();
+        throw ex;
+      }
+    }
+    try (InputStream in = stream)
+    {
+      String fontName = null;
+      String familyName = null;
+      String registry = null;
+      String encoding = null;
+      int boxWidth = 0;
+      int boxHeight = 0;
+      int boxBottom = 0;
+      int ascent = Integer.MIN_VALUE;
+      int descent = Integer.MIN_VALUE;
+      
+      int codePoints[] = new int[256];
+      DataGrid grids[] = new DataGrid[256];
+      int count = 0;
+      int skipped = 0;
+      
+      Glyph glyph = new Glyph();
+      boolean inBitmap = false;
+      LineReader line = new LineReader(in);
+      while (line.next())
+      {
+        if (inBitmap)
+        {
+          if (line.startsWith("ENDCHAR"))
+          {
+            inBitmap = false;
+            if (glyph.codePoint < 0 || glyph.codePoint > Character.MAX_CODE_POINT)
+            {
+              skipped += 1;
+              continue;
+            }
+            if (count == codePoints.length)
+            {
+              codePoints = Arrays.copyOf(codePoints, 2 * count);
+              grids = Arrays.copyOf(grids, 2 * count);
+            }
+            int advance = glyph.advance >= 0 ? glyph.advance : boxWidth;
+            codePoints[count] = glyph.codePoint;
+            grids[count] = GlyphBitmaps.place(glyph.buffer, 0, glyph.stride, glyph.width, glyph.height, true,
+                                              glyph.left, ascent - glyph.bottom - glyph.height, advance, ascent + descent);
+            count += 1;
+          }
+          else if (glyph.row < glyph.height)
+          {
+            decodeHex(line, glyph.bitmap, glyph.row * glyph.stride, glyph.stride);
+            glyph.row += 1;
+          }
+          continue;
+        }
+        
+        int space = line.space();
+        String keyword = line.text(0, space);
+        switch (keyword)
+        {
+          case "FONT": fontName = line.text(space + 1, line.length).trim(); break;
+          case "FAMILY_NAME": familyName = unquote(line.text(space + 1, line.length)); break;
+          case "CHARSET_REGISTRY": registry = unquote(line.text(space + 1, line.length)); break;
+          case "CHARSET_ENCODING": encoding = unquote(line.text(space + 1, line.length)); break;
+          case "FONT_ASCENT": ascent = parseInts(line, space, 1)[0]; break;
+          case "FONT_DESCENT": descent = parseInts(line, space, 1)[0]; break;
+          case "FONTBOUNDINGBOX": {
+            int box[] = parseInts(line, space, 4);
+            boxWidth = box[0];
+            boxHeight = box[1];
+            boxBottom = box[3];
+          } break;
+          case "CHARS": {
+            if (ascent == Integer.MIN_VALUE)
+              ascent = boxHeight + boxBottom;
+            if (descent == Integer.MIN_VALUE)
+              descent = -boxBottom;
+            if (registry != null && !registry.equalsIgnoreCase("ISO10646")
+                    && !(registry.equalsIgnoreCase("ISO8859") && "1".equals(encoding)))
+              RSLogger.getLogger().log(Level.WARNING, String.format("the encoding %s-%s is taken as unicode", registry, encoding));
+          } break;
+          case "STARTCHAR": glyph.start(); break;
+          case "ENCODING": glyph.codePoint = parseInts(line, space, 1)[0]; break;
+          case "DWIDTH": glyph.advance = parseInts(line, space, 1)[0]; break;
+          case "BBX": {
+            int box[] = parseInts(line, space, 4);
+            glyph.width = box[0];
+            glyph.height = box[1];
+            glyph.left = box[2];
+            glyph.bottom = box[3];
+          } break;
+          case "BITMAP": {
+            if (ascent == Integer.MIN_VALUE || glyph.width < 0 || glyph.height < 0)
+              throw new IOException(String.format("line %d: glyph without font or glyph bounding box", line.number));
+            glyph.bitmap();
+            inBitmap = true;
+          } break;
+          default: break;
+        }
+      }
+      
+      if (skipped > 0)
+        RSLogger.getLogger().log(Level.WARNING, String.format("%d glyphs without unicode encoding skipped", skipped));
+      String name = familyName != null ? familyName : fontName != null ? fontName : GlyphBitmaps.baseName(file);
+      return GlyphBitmaps.build(name, ascent + descent, codePoints, grids, count);
+    }
+  }
+  
+  /**
+   * parses the integers after a keyword
+   * @param line the line
+   * @param from the index after the keyword
+   * @param count the number of integers needed
+   * @return the integers
+   * @throws IOException in case there are not enough integers
+   */
+  private static int[] parseInts(LineReader line, int from, int count) throws IOException
+  {
+    int values[] = new int[count];
+    int i = from;
+    for (int n = 0; n < count; n += 1)
+    {
+      while (i < line.length && line.line[i] == ' ')
+        i += 1;
+      boolean negative = i < line.length && line.line[i] == '-';
+      if (negative)
+        i += 1;
+      int start = i;
+      long value = 0;
+      while (i < line.length && line.line[i] >= '0' && line.line[i] <= '9' && i - start < 10)
+      {
+        value = 10 * value + (line.line[i] - '0');
+        i += 1;
+      }
+      if (i == start || value > Integer.MAX_VALUE || (i < line.length && line.line[i] >= '0' && line.line[i] <= '9'))
+        throw new IOException(String.format("line %d: %d numbers expected: %s", line.number, count, line.text(0, line.length)));
+      values[n] = (int) (negative ? -value : value);
+    }
+    return values;
+  }
+  
+  /**
+   * decodes a row of hex digits, digits beyond the row are ignored
+   */
+  private static void decodeHex(LineReader line, byte bitmap[], int offset, int stride) throws IOException
+  {
+    int bytes = Math.min(stride, line.length >>> 1);
+    for (int i = 0; i < bytes; i += 1)
+    {
+      int high = Character.digit(line.line[2 * i], 16);
+      int low = Character.digit(line.line[2 * i + 1], 16);
+      if (high < 0 || low < 0)
+        throw new IOException(String.format("line %d: invalid bitmap row %s", line.number, line.text(0, line.length)));
+      bitmap[offset + i] = (byte) (high << 4 | low);
+    }
+  }
+  
+  /**
+   * removes the quotes of a string property
+   */
+  private static String unquote(String value)
+  {
+    value = value.trim();
+    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+      value = value.substring(1, value.length() - 1).replace("\"\"", "\"");
+    return value;
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.Raster;
+
+/**
+ * This class decides which pixels of a raster are set when it is converted
+ * to a grid. A pixel is first reduced to a gray value of 0 to 255: one band
+ * of the raster scaled to 8 bit, or the luminance multiplied by the alpha.
+ * For the luminance the bands are read as gray, gray and alpha, RGB or RGBA,
+ * like the rasters of the BufferedImage types with a direct or component
+ * color model. The subclasses decide on the gray values: by a threshold,
+ * by the Otsu threshold of the histogram, by an ordered dither or by
+ * Floyd-Steinberg error diffusion. Binarizers deciding every row on its
+ * own extend RowBinarizer.
+ * Binarizers are immutable and can be used by several threads at once.
+ * @author Richard
+ */
+public abstract class Binarizer
+{
+  /**
+   * the channel value selecting the luminance, multiplied by the alpha
+   */
+  public static final int LUMINANCE = -1;
+
+  protected final int channel;
+
+  /**
+   * construct a binarizer
+   * @param channel the band to read, LUMINANCE for the luminance
+   */
+  protected Binarizer(int channel)
+  {
+    this.channel = channel;
+  }
+
+  /**
+   * returns the band read
+   * @return the band, LUMINANCE for the luminance
+   */
+  public int getChannel()
+  {
+    return this.channel;
+  }
+
+  /**
+   * returns a binarizer adjusted to a whole raster, like the page of a font
+   * the characters are cut from. By default the binarizer itself.
+   * @param raster the raster
+   * @return the binarizer to use for the parts of the raster
+   */
+  public Binarizer calibrate(Raster raster)
+  {
+    return this;
+  }
+
+  /**
+   * reads the gray values of a part of a row
+   * @param raster the raster
+   * @param x the first column, in raster coordinates
+   * @param y the row, in raster coordinates
+   * @param count the number of pixels
+   * @param gray receives the gray values 0 to 255
+   * @param samples space for a band of the row, at least count long
+   */
+  protected final void readGray(Raster raster, int x, int y, int count, int gray[], int samples[])
+  {
+    if (channel != LUMINANCE)
+    {
+      RasterRows.readRow(raster, x, y, count, channel, gray);
+      scale(raster, channel, gray, count);
+      return;
+    }
+
+    int bands = raster.getNumBands();
+    if (bands < 3)
+    {
+      RasterRows.readRow(raster, x, y, count, 0, gray);
+      scale(raster, 0, gray, count);
+    }
+    else
+    {
+      // ITU-R BT.601 weights in 1/256
+      RasterRows.readRow(raster, x, y, count, 0, gray);
+      scale(raster, 0, gray, count);
+      for (int i = 0; i < count; i += 1)
+        gray[i] *= 77;
+      RasterRows.readRow(raster, x, y, count, 1, samples);
+      scale(raster, 1, samples, count);
+      for (int i = 0; i < count; i += 1)
+        gray[i] += 150 * samples[i];
+      RasterRows.readRow(raster, x, y, count, 2, samples);
+      scale(raster, 2, samples, count);
+      for (int i = 0; i < count; i += 1)
+        gray[i] = (gray[i] + 29 * samples[i] + 128) >> 8;
+    }
+
+    if (bands == 2 || bands == 4)
+    {
+      RasterRows.readRow(raster, x, y, count, bands - 1, samples);
+      scale(raster, bands - 1, samples, count);
+      for (int i = 0; i < count; i += 1)
+        gray[i] = (gray[i] * samples[i] + 127) / 255;
+    }
+  }
+
+  /**
+   * scales the samples of a band to 8 bit
+   */
+  private static void scale(Raster raster, int band, int samples[], int count)
+  {
+    int bits = raster.getSampleModel().getSampleSize(band);
+    if (bits > 8)
+    {
+      for (int i = 0; i < count; i += 1)
+        samples[i] >>>= bits - 8;
+    }
+    else if (bits < 8)
+    {
+      int max = (1 << bits) - 1;
+      for (int i = 0; i < count; i += 1)
+        samples[i] = samples[i] * 255 / max;
+    }
+  }
+
+  /**
+   * decides the pixels of an area of a raster and passes the runs of set
+   * pixels to consumer, top row first and from left to right within a row
+   * @param raster the raster
+   * @param x the first column of the area, in raster coordinates
+   * @param y the first row of the area, in raster coordinates
+   * @param width the width of the area
+   * @param height the height of the area
+   * @param consumer receives the runs, relative to the area
+   * @throws ArrayIndexOutOfBoundsException if the area is not in the raster
+   */
+  public void binarize(Raster raster, int x, int y, int width, int height, DataGrid.SpanConsumer consumer)
+  {
+    long rows[][] = this.decide(raster, x, y, width, height);
+    for (int j = 0; j < height; j += 1)
+      emitRow(j, rows[j], width, consumer);
+  }
+
+  /**
+   * decides the pixels of an area of a raster
+   * @param raster the raster
+   * @param x the first column of the area, in raster coordinates
+   * @param y the first row of the area, in raster coordinates
+   * @param width the width of the area
+   * @param height the height of the area
+   * @return the set pixels row by row, pixel i of a row is bit i
+   * @throws ArrayIndexOutOfBoundsException if the area is not in the raster
+   */
+  protected abstract long[][] decide(Raster raster, int x, int y, int width, int height);
+
+  /**
+   * passes the runs of set pixels of a row to consumer
+   * @param y the row passed to the consumer
+   * @param bits the pixels, pixel i is bit i
+   * @param width the number of pixels
+   * @param consumer receives the runs
+   */
+  protected static void emitRow(int y, long bits[], int width, DataGrid.SpanConsumer consumer)
+  {
+    int x = nextBit(bits, 0, true, width);
+    while (x < width)
+    {
+      int end = nextBit(bits, x, false, width);
+      consumer.span(y, x, end);
+      x = nextBit(bits, end, true, width);
+    }
+  }
+
+  /**
+   * returns the first pixel at or after from that is set (or unset)
+   */
+  private static int nextBit(long bits[], int from, boolean set, int width)
+  {
+    int index = from >>> 6;
+    if (index >= bits.length)
+      return width;
+    long word = (set ? bits[index] : ~bits[index]) & (-1L << from);
+    while (word == 0)
+    {
+      index += 1;
+      if (index >= bits.length)
+        return width;
+      word = set ? bits[index] : ~bits[index];
+    }
+    return Math.min(width, (index << 6) + Long.numberOfTrailingZeros(word));
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+/**
+ * this class holds static functions working on bits packed into long words:
+ * reading and writing bit ranges, reversing bits and transposing a 64 x 64
+ * bit block. They are used by DataGrid to rotate and mirror whole columns
+ * instead of single pixels.
+ * @author Richard
+ */
+public class BitMatrix
+{
+  private BitMatrix() {}
+
+  /**
+   * reads up to 64 bits from a packed word array
+   * @param words the word array
+   * @param bit the index of the first bit, it becomes the lowest bit of the result
+   * @param count the number of bits to read, 1 to 64
+   * @return the bits
+   */
+  public static long getBits(long[] words, int bit, int count)
+  {
+    int index = bit >>> 6;
+    int offset = bit & 63;
+    long value = words[index] >>> offset;
+    if (offset + count > 64)
+    {
+      value |= words[index + 1] << (64 - offset);
+    }
+    return count == 64 ? value : value & ((1L << count) - 1);
+  }
+
+  /**
+   * writes up to 64 bits into a packed word array, the other bits are kept
+   * @param words the word array
+   * @param bit the index of the first bit, it is taken from the lowest bit of value
+   * @param count the number of bits to write, 1 to 64
+   * @param value the bits
+   */
+  public static void setBits(long[] words, int bit, int count, long value)
+  {
+    long mask = count == 64 ? -1L : (1L << count) - 1;
+    value &= mask;
+    int index = bit >>> 6;
+    int offset = bit & 63;
+    words[index] = (words[index] & ~(mask << offset)) | (value << offset);
+    if (offset + count > 64)
+    {
+      words[index + 1] = (words[index + 1] & ~(mask >>> (64 - offset))) | (value >>> (64 - offset));
+    }
+  }
+
+  /**
+   * sets the bits from index from up to (not including) index to
+   * @param words the word array
+   * @param from the first bit to set
+   * @param to the bit after the last bit to set
+   */
+  public static void setRange(long[] words, int from, int to)
+  {
+    if (from >= to)
+      return;
+    int first = from >>> 6;
+    int last = (to - 1) >>> 6;
+    long firstMask = -1L << from;
+    long lastMask = -1L >>> (-to & 63);
+    if (first == last)
+    {
+      words[first] |= firstMask & lastMask;
+      return;
+    }
+    words[first] |= firstMask;
+    for (int i = first + 1; i < last; i += 1)
+      words[i] = -1L;
+    words[last] |= lastMask;
+  }
+  
+  /**
+   * reverses the order of the lowest count bits
+   * @param value the bits to reverse
+   * @param count the number of bits, 1 to 64
+   * @return the reversed bits, the bits above count are 0
+   */
+  public static long reverse(long value, int count)
+  {
+    return Long.reverse(value) >>> (64 - count);
+  }
+
+  /**
+   * transposes a 64 x 64 bit block in place: bit k of block[m] is swapped
+   * with bit m of block[k]. The block is split in four quadrants, the upper
+   * right and the lower left one are swapped, then the same is done with
+   * the quadrants of each quadrant down to single bits, 6 passes in total.
+   * @param block the 64 words of the block
+   */
+  public static void transpose64(long[] block)
+  {
+    long mask = 0x00000000FFFFFFFFL;
+    for (int j = 32; j != 0; j >>>= 1, mask ^= mask << j)
+    {
+      for (int k = 0; k < 64; k = ((k | j) + 1) & ~j)
+      {
+        long t = ((block[k] >>> j) ^ block[k | j]) & mask;
+        block[k] ^= t << j;
+        block[k | j] ^= t;
+      }
+    }
+  }
+}
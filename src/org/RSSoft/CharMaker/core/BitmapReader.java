@@ -19,111 +19,573 @@
  */
 package org.RSSoft.CharMaker.core;
 
-import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.logging.Level;
-import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.RSSoft.CharMaker.control.ControlCharacterSet;
 import org.RSSoft.CharMaker.core.character.CharacterSet;
 import org.RSSoft.CharMaker.util.RSLogger;
 
 /**
  * this class holds a static function to read pixel characters from a bitmap
- * by parsing an xml file, reading the image information from it (filename, x and y position)
- * and adding characters to a character set via the controller
+ * by parsing a font descriptor file, reading the image information from it
+ * (filename, x and y position) and adding characters to a character set via
+ * the controller.
+ * The three flavours of AngelCode BMFont descriptors are read: xml, text and
+ * binary (version 3). The format is detected from the start of the file, all
+ * of them are streamed. The pages are decoded in bands and the characters
+ * converted in parallel, see FontBuilder.
  * @author Richard
  */
 public class BitmapReader
 {
+  public static final int FORMAT_XML = 0;
+  public static final int FORMAT_TEXT = 1;
+  public static final int FORMAT_BINARY = 2;
+  
+  private static final int BINARY_VERSION = 3;
+  private static final int BLOCK_INFO = 1;
+  private static final int BLOCK_COMMON = 2;
+  private static final int BLOCK_PAGES = 3;
+  private static final int BLOCK_CHARS = 4;
+  private static final int CHAR_RECORD_SIZE = 20;
+  
   private BitmapReader() {}
   
   /**
-   * reads an xml file, extracts position information, and adds a character
-   * to the given character set
-   * @param filePath the path to the xml file
-   * @param charaListController the controller used to add characters
+   * the pixels of a band decoded at once: pages up to this size are decoded
+   * whole, larger pages in bands of rows of about this size
    */
-  public static void readBitmap(File filePath, ControlCharacterSet charaListController)
+  private static final int BAND_PIXELS = 1 << 23;
+  
+  /**
+   * the characters of a page starting in one band, they are converted
+   * from one decoded image
+   */
+  private static class Band
   {
-    Document doc;
-    ArrayList<BufferedImage> images = new ArrayList<>();
-    try
+    final int page;
+    final int y;
+    final int rows;
+    final int from;
+    final int to;
+    
+    Band(int page, int y, int rows, int from, int to)
     {
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      doc = db.parse(filePath);   
+      this.page = page;
+      this.y = y;
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
     }
-    catch (Exception ex)
+  }
+  
+  /**
+   * the glyph construction shared by the formats: the characters are
+   * collected while the descriptor is read. At its end they are sorted by
+   * page and row and split into bands, the bands are decoded and converted
+   * in parallel, so the memory used scales with the band size and the
+   * number of threads, not with the number and size of the pages. The
+   * characters are added to the character set in one bulk update.
+   */
+  private static class FontBuilder
+  {
+    private static final int GLYPH_INTS = 8;
+    
+    private final File directory;
+    private final ControlCharacterSet charaListController;
+    private final ArrayList<File> pageFiles;
+    private final Binarizer binarizer;
+    private CharacterSet charSet;
+    private int size;
+    
+    /**
+     * code point, x, y, width, height, x offset, y offset and page of the
+     * characters, GLYPH_INTS per character
+     */
+    private int glyphs[];
+    private int glyphCount;
+    
+    FontBuilder(File filePath, ControlCharacterSet charaListController, Binarizer binarizer)
     {
-      RSLogger.getLogger().log(Level.WARNING, "", ex);
-      return;
+      this.directory = filePath.getAbsoluteFile().getParentFile();
+      this.charaListController = charaListController;
+      this.pageFiles = new ArrayList<>();
+      this.binarizer = binarizer;
+      this.charSet = null;
+      this.size = 0;
+      this.glyphs = new int[GLYPH_INTS * 256];
+      this.glyphCount = 0;
     }
     
-    NodeList nd = doc.getDocumentElement().getElementsByTagName("page");
-    for (int i=0; i<nd.getLength(); i+=1)
-    {
-      Node n = nd.item(i);
-      NamedNodeMap attributes = n.getAttributes();
-      String imageName = attributes.getNamedItem("file").getNodeValue();
-      File path = filePath.getParentFile();
-      RSLogger.getLogger().log(Level.INFO, String.format("Opening image %s", path.getAbsolutePath() + File.separator + imageName));
-      
-      try
+    void page(String imageName)
+    {
+      pageFiles.add(new File(directory.getAbsolutePath()+File.separator+imageName));
+    }
+    
+    void info(String face, int fontSize)
+    {
+      if (charSet != null)
+        return;
+      // a negative size asks for matching the character height
+      size = Math.abs(fontSize);
+      charSet = new CharacterSet(0, size, face);
+      if (charaListController != null)
       {
-        images.add(ImageIO.read(new File(path.getAbsolutePath()+File.separator+imageName)));
+        charaListController.setCurrentCharacterSet(charSet);
       }
-      catch (IOException ex)
-      {
-        RSLogger.getLogger().log(Level.SEVERE, null, ex);
-      }      
     }
     
-    nd = doc.getDocumentElement().getElementsByTagName("info");
-    NamedNodeMap info = nd.item(0).getAttributes();
-    
-    int size = Integer.decode(info.getNamedItem("size").getNodeValue());
-    
-    CharacterSet charSet = new CharacterSet(
-            0,
-            size,
-            info.getNamedItem("face").getNodeValue());
+    void character(int c, int xStart, int yStart, int xEnd, int yEnd, int xOffset, int yOffset, int page)
+    {
+      if (charSet == null)
+      {
+        RSLogger.getLogger().log(Level.WARNING, "character before the font info skipped");
+        return;
+      }
+      if (GLYPH_INTS * (glyphCount + 1) > glyphs.length)
+        glyphs = Arrays.copyOf(glyphs, glyphs.length * 2);
+      int k = GLYPH_INTS * glyphCount;
+      glyphs[k] = c;
+      glyphs[k + 1] = xStart;
+      glyphs[k + 2] = yStart;
+      glyphs[k + 3] = xEnd;
+      glyphs[k + 4] = yEnd;
+      glyphs[k + 5] = xOffset;
+      glyphs[k + 6] = yOffset;
+      glyphs[k + 7] = page;
+      glyphCount += 1;
+    }
     
-    if (charaListController != null)
+    /**
+     * opens the pages, only their size is read
+     */
+    private AtlasPage[] openPages()
     {
-      charaListController.setCurrentCharacterSet(charSet);
+      AtlasPage pages[] = new AtlasPage[pageFiles.size()];
+      for (int i = 0; i < pages.length; i += 1)
+      {
+        RSLogger.getLogger().log(Level.INFO, String.format("Opening image %s", pageFiles.get(i).getAbsolutePath()));
+        try {
+          pages[i] = new AtlasPage(pageFiles.get(i));
+        } catch (IOException ex) {
+          RSLogger.getLogger().log(Level.SEVERE, null, ex);
+        }
+      }
+      return pages;
     }
     
-    nd = doc.getDocumentElement().getElementsByTagName("char");
-    for (int i=0; i<nd.getLength(); i+=1)
-    {
-      Node n = nd.item(i);
-      NamedNodeMap attributes = n.getAttributes();
-      int xStart = Integer.decode(attributes.getNamedItem("x").getNodeValue());
-      int yStart = Integer.decode(attributes.getNamedItem("y").getNodeValue());
-      int xOffset = Integer.decode(attributes.getNamedItem("xoffset").getNodeValue());
-      int yOffset = Integer.decode(attributes.getNamedItem("yoffset").getNodeValue());
-      int xEnd = Integer.decode(attributes.getNamedItem("width").getNodeValue());
-      int yEnd = Integer.decode(attributes.getNamedItem("height").getNodeValue());
-      int page = Integer.decode(attributes.getNamedItem("page").getNodeValue());
-      char c = (char) ((Integer.decode(attributes.getNamedItem("id").getNodeValue())) & 0xFF);
+    /**
+     * sorts the characters of loaded pages by page and row and splits them
+     * into bands
+     * @param order receives the characters in band order
+     * @return the bands
+     */
+    private ArrayList<Band> planBands(AtlasPage pages[], int order[])
+    {
+      long keys[] = new long[glyphCount];
+      int count = 0;
+      for (int i = 0; i < glyphCount; i += 1)
+      {
+        int page = glyphs[GLYPH_INTS * i + 7];
+        if (page < 0 || page >= pages.length || pages[page] == null)
+          continue;
+        int y = Math.max(0, glyphs[GLYPH_INTS * i + 2]);
+        keys[count] = ((long) page << 48) | ((long) Math.min(y, 0xFFFF) << 32) | i;
+        count += 1;
+      }
+      Arrays.sort(keys, 0, count);
       
+      ArrayList<Band> bands = new ArrayList<>();
+      int from = 0;
+      while (from < count)
+      {
+        int page = (int) (keys[from] >>> 48);
+        AtlasPage atlas = pages[page];
+        int bandRows = (long) atlas.getWidth() * atlas.getHeight() <= BAND_PIXELS
+                ? atlas.getHeight() : Math.max(1, BAND_PIXELS / atlas.getWidth());
+        int first = (int) (keys[from] >>> 32) & 0xFFFF;
+        int y = first - first % bandRows;
+        int end = y;
+        int to = from;
+        while (to < count && (int) (keys[to] >>> 48) == page && ((int) (keys[to] >>> 32) & 0xFFFF) < y + bandRows)
+        {
+          int i = (int) keys[to];
+          order[to] = i;
+          end = Math.max(end, glyphs[GLYPH_INTS * i + 2] + glyphs[GLYPH_INTS * i + 4]);
+          to += 1;
+        }
+        // a band ends with the last row of its characters
+        end = Math.min(Math.max(end, first + 1), atlas.getHeight());
+        bands.add(new Band(page, first, end - first, from, to));
+        from = to;
+      }
+      return bands;
+    }
+    
+    /**
+     * decodes a band and converts its characters, called in parallel
+     */
+    private void convert(AtlasPage pages[], Band band, int order[], DataGrid grids[])
+    {
+      BufferedImage image;
       try {
-        //      RSLogger.getLogger().log(Level.INFO, String.format("character %s @ %d,%d,%d,%d", c, xStart,yStart,xEnd,yEnd));
-        charSet.addCharacter(c, DataGrid.convert(images.get(page).getData(new Rectangle(xStart, yStart, xEnd, yEnd)), xOffset, yOffset, size, 0));
-      } catch (Exception ex) {
-        RSLogger.getLogger().log(Level.WARNING, null, ex);
+        image = pages[band.page].read(band.y, band.rows);
+      } catch (IOException | RuntimeException ex) {
+        RSLogger.getLogger().log(Level.SEVERE, null, ex);
+        return;
+      }
+      // the band raster is placed at its page coordinates, so dither patterns line up across characters
+      Raster raster = image.getRaster().createTranslatedChild(0, band.y);
+      Binarizer bandBinarizer = binarizer.calibrate(raster);
+      for (int n = band.from; n < band.to; n += 1)
+      {
+        int i = order[n];
+        int k = GLYPH_INTS * i;
+        int xStart = glyphs[k + 1];
+        int yStart = glyphs[k + 2];
+        int xEnd = glyphs[k + 3];
+        int yEnd = glyphs[k + 4];
+        int xOffset = glyphs[k + 5];
+        int yOffset = glyphs[k + 6];
+        try {
+          //      RSLogger.getLogger().log(Level.INFO, String.format("character %s @ %d,%d,%d,%d", c, xStart,yStart,xEnd,yEnd));
+          // only the bounding box of the glyph is kept, placed at its offset in the cell
+          int width = Math.max(5, xEnd + xOffset + xOffset);
+          grids[i] = TrimmedDataGrid.convert(raster.createChild(xStart, yStart, xEnd, yEnd, xStart, yStart, null), xOffset, yOffset, width, Math.max(5, size), bandBinarizer);
+        } catch (Exception ex) {
+          RSLogger.getLogger().log(Level.WARNING, null, ex);
+        }
       }
+    }
+    
+    /**
+     * decodes the pages band by band, converts the characters and adds them
+     */
+    void finish()
+    {
+      if (charSet == null)
+        return;
       
+      AtlasPage pages[] = this.openPages();
+      int order[] = new int[glyphCount];
+      ArrayList<Band> bands = this.planBands(pages, order);
+      DataGrid grids[] = new DataGrid[glyphCount];
+      bands.parallelStream().forEach((band) -> this.convert(pages, band, order, grids));
+      
+      // the characters are added in one bulk update, so the list is notified once
+      int codePoints[] = new int[glyphCount];
+      for (int i = 0; i < glyphCount; i += 1)
+        codePoints[i] = glyphs[GLYPH_INTS * i];
+      int skipped = charSet.addCharacters(codePoints, grids, glyphCount);
+      if (skipped > 0)
+        RSLogger.getLogger().log(Level.WARNING, String.format("%d characters skipped", skipped));
+    }
+  }
+  
+  /**
+   * reads a font descriptor file, extracts position information, and adds a
+   * character to the given character set
+   * @param filePath the path to the .fnt file, xml, text or binary
+   * @param charaListController the controller used to add characters
+   */
+  public static void readBitmap(File filePath, ControlCharacterSet charaListController)
+  {
+    BitmapReader.readBitmap(filePath, charaListController, ThresholdBinarizer.DEFAULT);
+  }
+  
+  /**
+   * reads a font descriptor file like readBitmap(File, ControlCharacterSet),
+   * the pixels set are decided by binarizer. It is calibrated to every
+   * band of a page decoded.
+   * @param filePath the path to the .fnt file, xml, text or binary
+   * @param charaListController the controller used to add characters
+   * @param binarizer decides which pixels of the pages are set
+   */
+  public static void readBitmap(File filePath, ControlCharacterSet charaListController, Binarizer binarizer)
+  {
+    FontBuilder font = new FontBuilder(filePath, charaListController, binarizer);
+    try
+    {
+      switch (detectFormat(filePath))
+      {
+        case FORMAT_BINARY: readBinary(filePath, font); break;
+        case FORMAT_TEXT: readText(filePath, font); break;
+        default: readXML(filePath, font); break;
+      }
+    }
+    catch (IOException | XMLStreamException | RuntimeException ex)
+    {
+      RSLogger.getLogger().log(Level.WARNING, "", ex);
+    }
+    finally
+    {
+      font.finish();
+    }
+  }
+  
+  /**
+   * detects the format of a font descriptor file from its first bytes:
+   * "BMF" starts a binary file, "<" an xml file, anything else is taken as
+   * text file
+   * @param filePath the file
+   * @return FORMAT_XML, FORMAT_TEXT or FORMAT_BINARY
+   * @throws IOException in case of IO Error
+   */
+  public static int detectFormat(File filePath) throws IOException
+  {
+    byte start[] = new byte[64];
+    int length;
+    try (InputStream in = new FileInputStream(filePath))
+    {
+      length = in.read(start);
+    }
+    if (length >= 3 && start[0] == 'B' && start[1] == 'M' && start[2] == 'F')
+      return FORMAT_BINARY;
+    // skip a byte order mark and white space
+    int i = 0;
+    if (length >= 3 && (start[0] & 0xFF) == 0xEF && (start[1] & 0xFF) == 0xBB && (start[2] & 0xFF) == 0xBF)
+      i = 3;
+    while (i < length && Character.isWhitespace(start[i]))
+      i += 1;
+    if (i < length && start[i] == '<')
+      return FORMAT_XML;
+    return FORMAT_TEXT;
+  }
+  
+  /**
+   * streams an xml descriptor
+   */
+  private static void readXML(File filePath, FontBuilder font) throws IOException, XMLStreamException
+  {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    try (InputStream in = new FileInputStream(filePath))
+    {
+      XMLStreamReader xml = factory.createXMLStreamReader(in);
+      HashMap<String, String> attributes = new HashMap<>();
+      try
+      {
+        while (xml.hasNext())
+        {
+          if (xml.next() != XMLStreamConstants.START_ELEMENT)
+            continue;
+          switch (xml.getLocalName())
+          {
+            case "page":
+              font.page(xml.getAttributeValue(null, "file"));
+              break;
+            case "info":
+              font.info(xml.getAttributeValue(null, "face"), Integer.decode(xml.getAttributeValue(null, "size")));
+              break;
+            case "char": {
+              attributes.clear();
+              for (int i = 0; i < xml.getAttributeCount(); i += 1)
+                attributes.put(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+              addCharacter(attributes, font, xml.getLocation().getLineNumber());
+            } break;
+            default: break;
+          }
+        }
+      }
+      finally
+      {
+        xml.close();
+      }
+    }
+  }
+  
+  /**
+   * reads a text descriptor line by line: a tag followed by key=value pairs,
+   * values may be quoted
+   */
+  private static void readText(File filePath, FontBuilder font) throws IOException
+  {
+    try (BufferedReader in = Files.newBufferedReader(filePath.toPath(), StandardCharsets.UTF_8))
+    {
+      HashMap<String, String> attributes = new HashMap<>();
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null)
+      {
+        lineNumber += 1;
+        if (lineNumber == 1 && line.startsWith("\uFEFF"))
+          line = line.substring(1);
+        attributes.clear();
+        String tag = parseTextLine(line, attributes);
+        switch (tag)
+        {
+          case "page":
+            font.page(attributes.get("file"));
+            break;
+          case "info":
+            font.info(attributes.get("face"), Integer.decode(attributes.get("size")));
+            break;
+          case "char":
+            addCharacter(attributes, font, lineNumber);
+            break;
+          default: break;
+        }
+      }
     }
   }
   
+  /**
+   * splits a line of a text descriptor
+   * @param line the line
+   * @param attributes receives the key=value pairs
+   * @return the tag, empty for an empty line
+   */
+  private static String parseTextLine(String line, HashMap<String, String> attributes)
+  {
+    int i = 0;
+    int length = line.length();
+    while (i < length && line.charAt(i) == ' ')
+      i += 1;
+    int tagStart = i;
+    while (i < length && line.charAt(i) != ' ')
+      i += 1;
+    String tag = line.substring(tagStart, i);
+    while (i < length)
+    {
+      while (i < length && line.charAt(i) == ' ')
+        i += 1;
+      int keyStart = i;
+      while (i < length && line.charAt(i) != '=' && line.charAt(i) != ' ')
+        i += 1;
+      String key = line.substring(keyStart, i);
+      if (i >= length || line.charAt(i) != '=')
+        continue;
+      i += 1;
+      int valueStart;
+      int valueEnd;
+      if (i < length && line.charAt(i) == '"')
+      {
+        valueStart = i + 1;
+        valueEnd = line.indexOf('"', valueStart);
+        if (valueEnd < 0)
+          valueEnd = length;
+        i = valueEnd + 1;
+      }
+      else
+      {
+        valueStart = i;
+        while (i < length && line.charAt(i) != ' ')
+          i += 1;
+        valueEnd = i;
+      }
+      attributes.put(key, line.substring(valueStart, valueEnd));
+    }
+    return tag;
+  }
+  
+  /**
+   * adds the character of a char element or line
+   */
+  private static void addCharacter(HashMap<String, String> attributes, FontBuilder font, int lineNumber)
+  {
+    try {
+      font.character(Integer.decode(attributes.get("id")),
+                     Integer.decode(attributes.get("x")),
+                     Integer.decode(attributes.get("y")),
+                     Integer.decode(attributes.get("width")),
+                     Integer.decode(attributes.get("height")),
+                     Integer.decode(attributes.get("xoffset")),
+                     Integer.decode(attributes.get("yoffset")),
+                     Integer.decode(attributes.getOrDefault("page", "0")));
+    } catch (RuntimeException ex) {
+      RSLogger.getLogger().log(Level.WARNING, String.format("character in line %d skipped", lineNumber), ex);
+    }
+  }
+  
+  /**
+   * reads a binary descriptor: "BMF", the version and blocks of a type
+   * byte, a little endian length and the content
+   */
+  private static void readBinary(File filePath, FontBuilder font) throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(filePath.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.position(3);
+    int version = buffer.get() & 0xFF;
+    if (version != BINARY_VERSION)
+      throw new IOException(String.format("binary font version %d is not supported, only version %d", version, BINARY_VERSION));
+    
+    int pages = 0;
+    while (buffer.remaining() >= 5)
+    {
+      int type = buffer.get() & 0xFF;
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining())
+        throw new IOException(String.format("block %d of %d bytes exceeds the file", type, length));
+      ByteBuffer block = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+      block.limit(length);
+      buffer.position(buffer.position() + length);
+      switch (type)
+      {
+        case BLOCK_INFO: {
+          int fontSize = block.getShort();
+          block.position(14);
+          font.info(readZeroTerminated(block), fontSize);
+        } break;
+        
+        case BLOCK_COMMON: {
+          block.position(8);
+          pages = block.getShort() & 0xFFFF;
+        } break;
+        
+        case BLOCK_PAGES: {
+          // all page names have the same length
+          for (int i = 0; (pages == 0 || i < pages) && block.hasRemaining(); i += 1)
+            font.page(readZeroTerminated(block));
+        } break;
+        
+        case BLOCK_CHARS: {
+          for (int k = 0; k + CHAR_RECORD_SIZE <= length; k += CHAR_RECORD_SIZE)
+          {
+            font.character(block.getInt(k),
+                           block.getShort(k + 4) & 0xFFFF,
+                           block.getShort(k + 6) & 0xFFFF,
+                           block.getShort(k + 8) & 0xFFFF,
+                           block.getShort(k + 10) & 0xFFFF,
+                           block.getShort(k + 12),
+                           block.getShort(k + 14),
+                           block.get(k + 18) & 0xFF);
+          }
+        } break;
+        
+        default: break;
+      }
+    }
+  }
+  
+  /**
+   * reads a zero terminated UTF-8 string
+   */
+  private static String readZeroTerminated(ByteBuffer block)
+  {
+    int start = block.position();
+    int end = start;
+    while (end < block.limit() && block.get(end) != 0)
+      end += 1;
+    block.position(Math.min(end + 1, block.limit()));
+    return new String(block.array(), block.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+  }
+  
 }
@@ -20,13 +20,25 @@
 package org.RSSoft.CharMaker.core;
 
 import java.awt.image.Raster;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.logging.Level;
 import org.RSSoft.CharMaker.control.models.FontSettings;
 import org.RSSoft.CharMaker.util.RSLogger;
 
 /**
- * This class represents a pixel grid relying on a boolean[][] array.
+ * This class represents a pixel grid packed into an array of long words.
+ * The pixels are stored column by column, the pixel at x, y is the bit
+ * x * ySize + y of the word array, so one word holds 64 pixels.
+ * The array is allocated when the first pixel is set, an empty grid only
+ * costs its size.
  * Several modifications are possible, including copy, convert (from java.awt.image.Raster)
  * and serializing it to a file
  * @author Richard
@@ -35,7 +47,23 @@ public class DataGrid implements Serializable
 {
   static final long serialVersionUID = 225;
   
-  private boolean grid[][];
+  /**
+   * the serialized form is still the former boolean[][] array, so character
+   * sets saved with older versions can be read and vice versa
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("grid", boolean[][].class),
+    new ObjectStreamField("xSize", int.class),
+    new ObjectStreamField("ySize", int.class)
+  };
+  
+  private transient long words[];
+  private transient long scratch[];
+  private transient long block[];
+  private transient boolean immutable;
+  private transient int hash;
+  
+  private static final HashMap<Long, DataGrid> emptyGrids = new HashMap<>();
   protected int xSize;
   protected int ySize;
   
@@ -52,23 +80,49 @@ public class DataGrid implements Serializable
       this.xSize = xGrid;
     
     this.ySize = yGrid;
-    grid = new boolean[xSize][ySize];
+    words = null;
   }
   
   /**
-   * replaces the grid by a new one with xGrid, yGrid size
+   * returns the shared immutable empty grid of the given size. 
+   * Characters without pixels can all use this one instance.
+   * @param xGrid the width of the grid, if 0, a grid with the width of 1 is returned
+   * @param yGrid the height of the grid
+   * @return the empty grid
+   */
+  public static DataGrid empty(int xGrid, int yGrid)
+  {
+    Long key = ((long) xGrid << 32) | (yGrid & 0xFFFFFFFFL);
+    synchronized (emptyGrids) {
+      DataGrid grid = emptyGrids.get(key);
+      if (grid == null)
+      {
+        grid = new DataGrid(xGrid, yGrid).makeImmutable();
+        emptyGrids.put(key, grid);
+      }
+      return grid;
+    }
+  }
+  
+  /**
+   * replaces the grid by a new cleared one with xGrid, yGrid size.
+   * The word array is only reallocated if it is too small for the new size.
    * @param xGrid the width of the grid, if 0, a grid with the width of 1 is created
    * @param yGrid the height of the grid, may not be 0
    */
   public void changeGrid(int xGrid, int yGrid)
   {
+    checkWritable();
     if (xGrid == 0)
       this.xSize = 1;
     else
       this.xSize = xGrid;
     
     this.ySize = yGrid;
-    grid = new boolean[xSize][ySize];
+    if (words != null && words.length >= wordCount(xSize, ySize))
+      Arrays.fill(words, 0L);
+    else
+      words = null;
   }
   
   /**
@@ -76,7 +130,9 @@ public class DataGrid implements Serializable
    */
   public void clearGrid()
   {
-    grid = new boolean[xSize][ySize];
+    checkWritable();
+    if (words != null)
+      Arrays.fill(words, 0L);
   }
   
   /**
@@ -84,39 +140,275 @@ public class DataGrid implements Serializable
    */
   public void setAll()
   {
-    int x = 0;
-    int y = 0;
-    for (boolean arr[] : grid)
-    {      
-      for (boolean b : arr)
+    checkWritable();
+    materialize();
+    int count = wordCount(xSize, ySize);
+    Arrays.fill(words, 0, count, -1L);
+    clearTail();
+  }
+  
+  /**
+   * invert all points in the grid.
+   */
+  public void invertAll()
+  {
+    checkWritable();
+    materialize();
+    int count = wordCount(xSize, ySize);
+    for (int i = 0; i < count; i += 1)
+    {
+      words[i] = ~words[i];
+    }
+    clearTail();
+  }
+  
+  /**
+   * allocates the word array of a grid that had no pixels set so far
+   */
+  private void materialize()
+  {
+    if (words == null)
+      words = new long[wordCount(xSize, ySize)];
+  }
+  
+  /**
+   * returns the word at index, 0 if the grid has no word array yet
+   */
+  private long word(int index)
+  {
+    return words == null ? 0L : words[index];
+  }
+  
+  /**
+   * returns whether the pixels are held in the word array of this object.
+   * Grids that calculate their pixels from somewhere else (like a view) 
+   * return false and are read by getColumn(int, int, int) only.
+   * @return true if the pixels are in the word array
+   */
+  protected boolean isPacked()
+  {
+    return true;
+  }
+  
+  /**
+   * returns the word at index as it would be in the packed word array, also
+   * for grids that are not packed
+   * @param index the index of the word
+   * @return the 64 pixels of the word
+   */
+  private long packedWord(int index)
+  {
+    if (isPacked())
+      return word(index);
+    long value = 0L;
+    int bit = index << 6;
+    int end = Math.min(bit + 64, xSize * ySize);
+    while (bit < end)
+    {
+      int x = bit / ySize;
+      int y = bit - x * ySize;
+      int count = Math.min(ySize - y, end - bit);
+      value |= getColumn(x, y, count) << (bit & 63);
+      bit += count;
+    }
+    return value;
+  }
+  
+  /**
+   * returns whether no pixel is set, a word at a time
+   * @return true if the grid is empty
+   */
+  public boolean isEmpty()
+  {
+    int count = wordCount(xSize, ySize);
+    for (int i = 0; i < count; i += 1)
+    {
+      if (packedWord(i) != 0)
+        return false;
+    }
+    return true;
+  }
+  
+  /**
+   * returns the smallest area containing all set pixels, a column chunk at a time
+   * @return the area, xEnd and yEnd are the width and height (like in 
+   *         copy(DataGrid, GridArea, boolean)). An empty grid returns an area
+   *         of 0, 0 with width and height 0.
+   */
+  public GridArea getBounds()
+  {
+    int xMin = xSize;
+    int xMax = -1;
+    int yMin = ySize;
+    int yMax = -1;
+    for (int x = 0; x < xSize; x += 1)
+    {
+      for (int y = 0; y < ySize; y += 64)
       {
-        this.grid[x][y] = true;
-        y += 1;
+        int count = ySize - y < 64 ? ySize - y : 64;
+        long value = getColumn(x, y, count);
+        if (value != 0)
+        {
+          if (x < xMin)
+            xMin = x;
+          xMax = x;
+          yMin = Math.min(yMin, y + Long.numberOfTrailingZeros(value));
+          yMax = Math.max(yMax, y + 63 - Long.numberOfLeadingZeros(value));
+        }
       }
-      y = 0;
-      x += 1;
     }
+    if (xMax < 0)
+      return new GridArea(0, 0, 0, 0);
+    return new GridArea(xMin, yMin, xMax - xMin + 1, yMax - yMin + 1);
   }
   
   /**
-   * invert all points in the grid.
+   * receives the runs of set pixels of a grid, row by row
    */
-  public void invertAll()
+  public interface SpanConsumer {
+    /**
+     * called for each run of set pixels
+     * @param y the row
+     * @param xStart the first set pixel
+     * @param xEnd the first unset pixel after the run
+     */
+    public void span(int y, int xStart, int xEnd);
+  }
+  
+  /**
+   * passes all runs of set pixels to consumer, top row first and from left to
+   * right within a row. The columns are read 64 rows at once.
+   * @param consumer the consumer of the runs
+   */
+  public void forEachSpan(SpanConsumer consumer)
   {
-        int x = 0;
-    int y = 0;
-    for (boolean arr[] : grid)
-    {      
-      for (boolean b : arr)
+    long band[] = new long[xSize];
+    for (int yStart = 0; yStart < ySize; yStart += 64)
+    {
+      int count = ySize - yStart < 64 ? ySize - yStart : 64;
+      long any = 0L;
+      for (int x = 0; x < xSize; x += 1)
       {
-        this.grid[x][y] = !this.grid[x][y];
-        y += 1;
+        band[x] = getColumn(x, yStart, count);
+        any |= band[x];
+      }
+      while (any != 0)
+      {
+        int row = Long.numberOfTrailingZeros(any);
+        any &= any - 1;
+        long mask = 1L << row;
+        int x = 0;
+        while (x < xSize)
+        {
+          if ((band[x] & mask) == 0)
+          {
+            x += 1;
+            continue;
+          }
+          int xStart = x;
+          while (x < xSize && (band[x] & mask) != 0)
+            x += 1;
+          consumer.span(yStart + row, xStart, x);
+        }
       }
-      y = 0;
-      x += 1;
     }
   }
   
+  /**
+   * clears the unused bits of the last word, they have to stay 0 so whole
+   * words can be compared and combined
+   */
+  private void clearTail()
+  {
+    int bits = xSize * ySize;
+    if ((bits & 63) != 0)
+    {
+      words[(bits >>> 6)] &= (1L << bits) - 1;
+    }
+  }
+  
+  /**
+   * returns the number of long words needed to hold a grid of the given size
+   * @param xGrid the width of the grid
+   * @param yGrid the height of the grid
+   * @return the number of words
+   */
+  protected static int wordCount(int xGrid, int yGrid)
+  {
+    return (xGrid * yGrid + 63) >>> 6;
+  }
+  
+  /**
+   * returns the pixel at x, y without checking the bounds
+   * @param x the x position of the grid
+   * @param y the y position of the grid
+   * @return true if the pixel is set
+   */
+  protected boolean get(int x, int y)
+  {
+    if (words == null)
+      return false;
+    int bit = x * ySize + y;
+    return (words[bit >>> 6] & (1L << bit)) != 0;
+  }
+  
+  /**
+   * sets the pixel at x, y without checking the bounds
+   * @param x the x position of the grid
+   * @param y the y position of the grid
+   * @param b the value to set
+   */
+  protected void set(int x, int y, boolean b)
+  {
+    if (words == null)
+    {
+      if (!b)
+        return;
+      materialize();
+    }
+    int bit = x * ySize + y;
+    if (b)
+      words[bit >>> 6] |= 1L << bit;
+    else
+      words[bit >>> 6] &= ~(1L << bit);
+  }
+  
+  /**
+   * returns up to 64 pixels of a column at once. The pixel at y is the
+   * lowest bit of the result, the pixel at y + count - 1 the highest.
+   * The bounds are not checked.
+   * @param x the column
+   * @param y the first row
+   * @param count the number of pixels to read, 1 to 64
+   * @return the pixels as bits
+   */
+  public long getColumn(int x, int y, int count)
+  {
+    if (words == null)
+      return 0L;
+    return BitMatrix.getBits(words, x * ySize + y, count);
+  }
+  
+  /**
+   * sets up to 64 pixels of a column at once, see getColumn(int, int, int)
+   * for the bit order. The bounds are not checked.
+   * @param x the column
+   * @param y the first row
+   * @param count the number of pixels to write, 1 to 64
+   * @param value the pixels as bits
+   */
+  public void setColumn(int x, int y, int count, long value)
+  {
+    checkWritable();
+    if (words == null)
+    {
+      if ((count == 64 ? value : value & ((1L << count) - 1)) == 0)
+        return;
+      materialize();
+    }
+    BitMatrix.setBits(words, x * ySize + y, count, value);
+  }
+  
   /**
    * returns the width of the grid
    * @return the width of the grid
@@ -136,12 +428,118 @@ public class DataGrid implements Serializable
   }
   
   /**
-   * returns the grid in form of a boolean[][] array
+   * returns the grid in form of a boolean[][] array.
+   * The array is unpacked from the grid, changes to it are not written back.
    * @return the grid as array
    */
+  @Deprecated
   public boolean[][] getArray()
   {
-    return grid;
+    boolean arr[][] = new boolean[xSize][ySize];
+    for (int x = 0; x < xSize; x += 1)
+    {
+      for (int y = 0; y < ySize; y += 1)
+      {
+        arr[x][y] = get(x, y);
+      }
+    }
+    return arr;
+  }
+  
+  /**
+   * makes this grid immutable: every following attempt to change a pixel or
+   * the size throws an UnsupportedOperationException. Immutable grids can be
+   * shared, for example by several characters with the same pixels.
+   * @return this grid
+   */
+  public DataGrid makeImmutable()
+  {
+    this.immutable = true;
+    return this;
+  }
+  
+  /**
+   * returns whether this grid is immutable
+   * @return true if the grid can not be changed
+   */
+  public boolean isImmutable()
+  {
+    return this.immutable;
+  }
+  
+  private void checkWritable()
+  {
+    if (immutable)
+      throw new UnsupportedOperationException("the grid is immutable, copy it to change pixels");
+    beforeChange();
+  }
+  
+  /**
+   * called before the pixels or the size of the grid are changed. Grids that
+   * keep their pixels somewhere else (like TrimmedDataGrid) move them into the
+   * word array here.
+   */
+  protected void beforeChange()
+  {
+  }
+  
+  /**
+   * compares size and pixels of this grid with another grid, a word at a time
+   * @param obj the other grid
+   * @return true if the other grid is a DataGrid of the same size with the same pixels set
+   */
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (obj == this)
+      return true;
+    if (!(obj instanceof DataGrid))
+      return false;
+    DataGrid anotherGrid = (DataGrid) obj;
+    if (this.xSize != anotherGrid.xSize || this.ySize != anotherGrid.ySize)
+      return false;
+    if (this.immutable && anotherGrid.immutable && this.hashCode() != anotherGrid.hashCode())
+      return false;
+    int count = wordCount(xSize, ySize);
+    for (int i = 0; i < count; i += 1)
+    {
+      if (packedWord(i) != anotherGrid.packedWord(i))
+        return false;
+    }
+    return true;
+  }
+  
+  /**
+   * returns whether the pixels of this grid can not change anymore, so
+   * values calculated from them can be kept
+   * @return true for immutable grids, a view returns false as it may be
+   *         moved over other pixels
+   */
+  protected boolean hasFixedPixels()
+  {
+    return immutable;
+  }
+  
+  /**
+   * returns a hash of size and pixels. Grids with fixed pixels calculate it
+   * only once.
+   * @return the hash code
+   */
+  @Override
+  public int hashCode()
+  {
+    boolean cache = hasFixedPixels();
+    if (cache && hash != 0)
+      return hash;
+    int h = 31 * xSize + ySize;
+    int count = wordCount(xSize, ySize);
+    for (int i = 0; i < count; i += 1)
+    {
+      h = 31 * h + Long.hashCode(packedWord(i));
+    }
+    if (cache)
+      hash = h;
+    return h;
   }
   
   /**
@@ -151,17 +549,7 @@ public class DataGrid implements Serializable
    */
   public void orGrid(DataGrid anotherGrid)
   {
-    int dimX = this.xSize < anotherGrid.xSize ? this.xSize : anotherGrid.xSize;
-    int dimY = this.ySize < anotherGrid.ySize ? this.ySize : anotherGrid.ySize;
-    
-    for (int x = 0; x < dimX; x += 1)
-    {
-      for (int y = 0; y < dimY; y += 1)
-      {
-        System.out.println(String.format("Setting grid at %d %d to %s", x, y, anotherGrid.grid[x][y] ? "true" : "false"));
-        this.grid[x][y] |= anotherGrid.grid[x][y];
-      }
-    }
+    combine(anotherGrid, OPERATION_OR);
   }
   
   /**
@@ -171,16 +559,7 @@ public class DataGrid implements Serializable
    */
   public void andGrid(DataGrid anotherGrid)
   {
-    int dimX = this.xSize < anotherGrid.xSize ? this.xSize : anotherGrid.xSize;
-    int dimY = this.ySize < anotherGrid.ySize ? this.ySize : anotherGrid.ySize;
-    
-    for (int x = 0; x < dimX; x += 1)
-    {
-      for (int y = 0; y < dimY; y += 1)
-      {
-        this.grid[x][y] &= anotherGrid.grid[x][y];
-      }
-    }
+    combine(anotherGrid, OPERATION_AND);
   }
   
   /**
@@ -200,14 +579,56 @@ public class DataGrid implements Serializable
    */
   public void substractGrid(DataGrid anotherGrid)
   {
+    combine(anotherGrid, OPERATION_SUBSTRACT);
+  }
+  
+  private static final int OPERATION_OR = 0;
+  private static final int OPERATION_AND = 1;
+  private static final int OPERATION_SUBSTRACT = 2;
+  
+  private static long combine(long a, long b, int operation)
+  {
+    switch (operation) {
+      case OPERATION_OR: return a | b;
+      case OPERATION_AND: return a & b;
+      default: return a & ~b;
+    }
+  }
+  
+  /**
+   * combines another grid with this grid 64 pixels at a time. If both grids
+   * have the same size, the word arrays are combined directly, else the
+   * overlapping area is combined column by column.
+   * @param anotherGrid the other grid
+   * @param operation one of OPERATION_OR, OPERATION_AND, OPERATION_SUBSTRACT
+   */
+  private void combine(DataGrid anotherGrid, int operation)
+  {
+    checkWritable();
+    if (operation == OPERATION_OR ? anotherGrid.isPacked() && anotherGrid.words == null : this.words == null)
+    {
+      return;
+    }
+    if (this.xSize == anotherGrid.xSize && this.ySize == anotherGrid.ySize)
+    {
+      materialize();
+      int count = wordCount(xSize, ySize);
+      for (int i = 0; i < count; i += 1)
+      {
+        words[i] = combine(words[i], anotherGrid.packedWord(i), operation);
+      }
+      return;
+    }
+    
     int dimX = this.xSize < anotherGrid.xSize ? this.xSize : anotherGrid.xSize;
     int dimY = this.ySize < anotherGrid.ySize ? this.ySize : anotherGrid.ySize;
     
     for (int x = 0; x < dimX; x += 1)
     {
-      for (int y = 0; y < dimY; y += 1)
+      for (int y = 0; y < dimY; y += 64)
       {
-        this.grid[x][y] &= !anotherGrid.grid[x][y];
+        int count = dimY - y < 64 ? dimY - y : 64;
+        setColumn(x, y, count, combine(getColumn(x, y, count), anotherGrid.getColumn(x, y, count), operation));
       }
     }
   }
@@ -222,9 +643,9 @@ public class DataGrid implements Serializable
    */
   public boolean isSetAt(int x, int y) throws Exception
   {
-    if (x >= this.xSize || y >= this.ySize)
+    if (x < 0 || y < 0 || x >= this.xSize || y >= this.ySize)
       throw new Exception(String.format("the dimension %d, %d is out of bounds (max %d, %d", x, y, this.xSize-1, this.ySize-1));
-    return grid[x][y];
+    return get(x, y);
   }
   
   /**
@@ -247,9 +668,10 @@ public class DataGrid implements Serializable
    */
   public void setAt(int x, int y, boolean b) throws Exception
   {
-    if (x >= this.xSize || y >= this.ySize)
+    checkWritable();
+    if (x < 0 || y < 0 || x >= this.xSize || y >= this.ySize)
       throw new Exception(String.format("the dimension %d, %d is out of bounds (max %d, %d", x, y, this.xSize-1, this.ySize-1));
-    grid[x][y] = b;
+    set(x, y, b);
   }
   
   /**
@@ -321,6 +743,21 @@ public class DataGrid implements Serializable
    * @return a new DataGrid with the raster information
    */
   public static DataGrid convert(Raster raster, int xOffset, int yOffset, int height, int width)
+  {
+    return DataGrid.convert(raster, xOffset, yOffset, height, width, ThresholdBinarizer.DEFAULT);
+  }
+  
+  /**
+   * converts from java.awt.image.Raster, the pixels set are decided by binarizer
+   * @param raster a raster with the dimensions of at least height and width
+   * @param xOffset an offset into the raster
+   * @param yOffset an offset into the raster
+   * @param height the total pixels to analyse in height
+   * @param width the total pixels to analyse in width
+   * @param binarizer decides which pixels are set
+   * @return a new DataGrid with the raster information
+   */
+  public static DataGrid convert(Raster raster, int xOffset, int yOffset, int height, int width, Binarizer binarizer)
   {
     int xSize;
     if (width == 0)
@@ -338,23 +775,49 @@ public class DataGrid implements Serializable
     int xStart = xOffset > 0 ? 0 : xOffset * (-1);
     int yStart = yOffset > 0 ? 0 : yOffset * (-1);
     
-    for (int i=0; i<xSize; i+=1)
-    {      
-      for (int j=0; j<ySize; j+=1)
+    // pixels outside the raster stay unset
+    int columns = Math.min(xSize, raster.getWidth()-xStart);
+    int rows = Math.min(ySize, raster.getHeight()-yStart);
+    if (columns > 0 && rows > 0)
+      dgrid.setBinarized(binarizer, raster, raster.getMinX()+xStart, raster.getMinY()+yStart, columns, rows, 0, 0);
+    return dgrid;
+  }
+  
+  /**
+   * sets the pixels of an area of the grid from a raster, as decided by
+   * binarizer. The bits are written to the word array directly.
+   * The pixels already set stay set, the bounds of the grid are not checked.
+   * @param binarizer decides which pixels are set
+   * @param raster the raster
+   * @param rasterX the first column to read, in raster coordinates
+   * @param rasterY the first row to read, in raster coordinates
+   * @param width the number of columns
+   * @param height the number of rows
+   * @param x the column of the grid receiving the first column
+   * @param y the row of the grid receiving the first row
+   * @throws ArrayIndexOutOfBoundsException if the area is not in the raster
+   */
+  protected void setBinarized(Binarizer binarizer, Raster raster, int rasterX, int rasterY, int width, int height, int x, int y)
+  {
+    checkWritable();
+    long rows[][] = binarizer.decide(raster, rasterX, rasterY, width, height);
+    for (int j = 0; j < height; j += 1)
+    {
+      long bits[] = rows[j];
+      for (int k = 0; k < bits.length; k += 1)
       {
-        if (raster.getSample(i+raster.getMinX()+xStart, j+raster.getMinY()+yStart, 0) > 127)
+        long word = bits[k];
+        while (word != 0)
         {
-          try {
-            dgrid.setAt(i, j);
-          } catch (Exception ex) {
-            RSLogger.getLogger().log(Level.SEVERE, null, ex);
-          }
+          int i = (k << 6) + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+          if (words == null)
+            materialize();
+          int bit = (x + i) * ySize + y + j;
+          words[bit >>> 6] |= 1L << bit;
         }
       }
-      
     }
-    
-    return dgrid;
   }
   
   /**
@@ -375,9 +838,10 @@ public class DataGrid implements Serializable
     
     for (int x = 0; x < xEnd; x += 1)
     {
-      for (int y = 0; y < yEnd; y += 1)
+      for (int y = 0; y < yEnd; y += 64)
       {
-        grid[x + xOffset][y + yOffset] = selection.grid[x][y];
+        int count = yEnd - y < 64 ? yEnd - y : 64;
+        setColumn(x + xOffset, y + yOffset, count, selection.getColumn(x, y, count));
       }
     }
   }
@@ -505,12 +969,13 @@ public class DataGrid implements Serializable
     
     for (int x = 0; x < xEnd; x += 1)
     {
-      for (int y = 0; y < yEnd; y += 1)
+      for (int y = 0; y < yEnd; y += 64)
       {
-        selection.grid[x][y] = grid[x + area.xOffset][y + area.yOffset];
+        int count = yEnd - y < 64 ? yEnd - y : 64;
+        selection.setColumn(x, y, count, getColumn(x + area.xOffset, y + area.yOffset, count));
         if (cut)
         {
-          grid[x + area.xOffset][y + area.yOffset] = false;
+          setColumn(x + area.xOffset, y + area.yOffset, count, 0L);
         }
       }
     }
@@ -559,36 +1024,145 @@ public class DataGrid implements Serializable
       return selection;
   }
   
+  /**
+   * rotates and mirrors the grid in place. The grid is mirrored first and then
+   * rotated counterclockwise, for 90 and 270 degrees the width and height
+   * are swapped. 
+   * @param rotation the rotation, FontSettings.ROTATION_0 to ROTATION_270
+   * @param mirrorHorizontal mirror the columns (left becomes right)
+   * @param mirrorVertical mirror the rows (top becomes bottom)
+   * @throws Exception in case the rotation is invalid
+   */
   public void manipulate(int rotation, boolean mirrorHorizontal, boolean mirrorVertical) throws Exception
   {
-    DataGrid newGrid;
-    if (rotation == FontSettings.ROTATION_0 || rotation == FontSettings.ROTATION_180)
+    checkWritable();
+    switch (rotation) {
+      case FontSettings.ROTATION_0: {
+        flip(mirrorHorizontal, mirrorVertical);
+      } break;
+      case FontSettings.ROTATION_90: {
+        transpose(!mirrorHorizontal, mirrorVertical);
+      } break;
+      case FontSettings.ROTATION_180: {
+        flip(!mirrorHorizontal, !mirrorVertical);
+      } break;
+      case FontSettings.ROTATION_270: {
+        transpose(mirrorHorizontal, !mirrorVertical);
+      } break;
+      default: {
+        throw new Exception("invalid parameter");
+      }
+    }
+  }
+  
+  /**
+   * mirrors the grid in place: the columns are swapped pairwise and the
+   * bits of each column are reversed 64 at a time
+   * @param flipX reverse the order of the columns
+   * @param flipY reverse the order of the pixels within each column
+   */
+  private void flip(boolean flipX, boolean flipY)
+  {
+    if ((!flipX && !flipY) || words == null)
     {
-      newGrid = new DataGrid(xSize, ySize);
+      return;
     }
-    else
+    if (flipY)
     {
-      newGrid = new DataGrid(ySize, xSize);
+      int chunks = (ySize + 63) >>> 6;
+      if (scratch == null || scratch.length < chunks)
+      {
+        scratch = new long[chunks];
+      }
+      for (int x = 0; x < xSize; x += 1)
+      {
+        for (int y = 0, i = 0; y < ySize; y += 64, i += 1)
+        {
+          scratch[i] = getColumn(x, y, ySize - y < 64 ? ySize - y : 64);
+        }
+        for (int y = 0, i = 0; y < ySize; y += 64, i += 1)
+        {
+          int count = ySize - y < 64 ? ySize - y : 64;
+          setColumn(x, ySize - y - count, count, BitMatrix.reverse(scratch[i], count));
+        }
+      }
+    }
+    if (flipX)
+    {
+      for (int x = 0; x < xSize / 2; x += 1)
+      {
+        int other = xSize - 1 - x;
+        for (int y = 0; y < ySize; y += 64)
+        {
+          int count = ySize - y < 64 ? ySize - y : 64;
+          long left = getColumn(x, y, count);
+          setColumn(x, y, count, getColumn(other, y, count));
+          setColumn(other, y, count, left);
+        }
+      }
+    }
+  }
+  
+  /**
+   * transposes the grid (rows become columns) in blocks of 64 x 64 pixels
+   * into the scratch buffer, which is then swapped with the word array.
+   * Both arrays are kept, so repeated calls on the same grid do not allocate.
+   * @param flipX reverse the order of the columns before transposing
+   * @param flipY reverse the order of the rows before transposing
+   */
+  private void transpose(boolean flipX, boolean flipY)
+  {
+    if (words == null)
+    {
+      int size = xSize;
+      xSize = ySize;
+      ySize = size;
+      return;
+    }
+    int count = wordCount(xSize, ySize);
+    if (scratch == null || scratch.length < count)
+    {
+      scratch = new long[words.length > count ? words.length : count];
+    }
+    if (block == null)
+    {
+      block = new long[64];
     }
     
-    rotation = (rotation + 1) % 4;
-    GridIterator it = new GridIterator(this, rotation, mirrorHorizontal, mirrorVertical);
-    
-    int x = 0;
-    int y = 0;
-    for (it.x = it.xBegin; it.conditionX(); it.x += it.xDirection)
+    // the new column i is the old row i, so the new column height is xSize
+    for (int row = 0; row < ySize; row += 64)
     {
-      for (it.y = it.yBegin; it.conditionY(); it.y += it.yDirection)
+      int rows = ySize - row < 64 ? ySize - row : 64;
+      for (int column = 0; column < xSize; column += 64)
       {
-        newGrid.grid[x][y] = grid[it.getColumnIterator()][it.getRowIterator()];
-        System.out.println(String.format("newGrid[%d][%d] = oldGrid[%d][%d]", x, y, it.getColumnIterator(), it.getRowIterator()));
-        x += 1;
+        int columns = xSize - column < 64 ? xSize - column : 64;
+        for (int k = 0; k < 64; k += 1)
+        {
+          block[k] = k < columns ? getColumn(column + k, row, rows) : 0L;
+        }
+        BitMatrix.transpose64(block);
+        for (int m = 0; m < rows; m += 1)
+        {
+          int newX = flipY ? ySize - 1 - (row + m) : row + m;
+          if (flipX)
+          {
+            BitMatrix.setBits(scratch, newX * xSize + xSize - column - columns, columns, BitMatrix.reverse(block[m], columns));
+          }
+          else
+          {
+            BitMatrix.setBits(scratch, newX * xSize + column, columns, block[m]);
+          }
+        }
       }
-      x = 0;
-      y += 1;
     }
     
-    copyTo(newGrid);
+    long swap[] = words;
+    words = scratch;
+    scratch = swap;
+    int size = xSize;
+    xSize = ySize;
+    ySize = size;
+    clearTail();
   }
   
   public void rotate(int rotation) throws Exception
@@ -610,41 +1184,6 @@ public class DataGrid implements Serializable
     return (this.xSize * nOfLines);
   }
   
-  private void setGridByByteArray(int xSize, int ySize, byte[] arr) throws Exception {    
-    this.changeGrid(xSize, ySize);
-    
-    int pos_arr = 0;
-    int nOfLines;
-    nOfLines = this.ySize / 8;
-    if (this.ySize % 8 != 0) {
-      nOfLines += 1;
-    }
-    
-    for (int i=0; i<nOfLines; i+=1) {
-      GridArea offset = new GridArea();
-      offset.yOffset = 8*i;
-      offset.yEnd = 8*i + 7;
-      GridIterator it = new GridIterator(this, FontSettings.ROTATION_0, FontSettings.MIRROR_NONE, offset);
-      for (it.x=it.xBegin; it.conditionX(); it.x+=it.xDirection)
-      {
-        //int y = c.getGrid().getYSize();
-        char pos = 0x80;
-        byte value = 0;
-        for (it.y=it.yBegin; it.conditionY(); it.y+=it.yDirection)
-        {
-          value = arr[pos_arr];
-          if ((value & pos) != 0) {
-            this.isSetAt(it.x, it.y);
-          }
-          pos >>= 1;
-        }
-        pos_arr += 1;
-      }
-
-
-    }
-  }
-  
   public byte[] getGridAsByteArray() throws Exception {
     byte[] arr;
       
@@ -690,43 +1229,144 @@ public class DataGrid implements Serializable
 
     return arr;
   }
-/*  
-  private void writeObject(java.io.ObjectOutputStream out) throws IOException
+  
+  /**
+   * writes the pixels bit packed to out: column by column like the word
+   * array, lowest bit first, (xSize * ySize + 7) / 8 bytes. The size is not
+   * written.
+   * @param out the output to write to
+   * @throws IOException in case of IO Error
+   */
+  public void writePixels(DataOutput out) throws IOException
   {
-    out.writeInt(this.xSize);
-    out.writeInt(this.ySize);
-    out.writeInt(this.getSizeInBytes());
-    try {
-      out.write(this.getGridAsByteArray());
-    } catch (Exception ex) {
-      RSLogger.getLogger().log(Level.SEVERE, null, ex);
+    int bytes = (xSize * ySize + 7) >>> 3;
+    int count = wordCount(xSize, ySize);
+    for (int i = 0; i < count; i += 1)
+    {
+      long value = packedWord(i);
+      int n = Math.min(8, bytes - (i << 3));
+      if (n == 8)
+      {
+        out.writeLong(Long.reverseBytes(value));
+      }
+      else
+      {
+        for (int b = 0; b < n; b += 1)
+          out.write((int) (value >>> (b << 3)));
+      }
     }
   }
-  private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException
+  
+  /**
+   * reads a grid written by writePixels(DataOutput) from a buffer, the
+   * position of the buffer is moved behind the pixels
+   * @param buffer the buffer to read from
+   * @param xGrid the width of the grid
+   * @param yGrid the height of the grid
+   * @return a new grid with the pixels read
+   * @throws java.nio.BufferUnderflowException in case the buffer ends before the last pixel
+   */
+  public static DataGrid readPixels(ByteBuffer buffer, int xGrid, int yGrid)
   {
-    this.xSize = in.readInt();
-    this.ySize = in.readInt();
-    int gridSize = in.readInt();
-    byte[] arr = new byte[gridSize];
-    if (gridSize != this.getSizeInBytes()) {
-      RSLogger.getLogger().log(Level.SEVERE, String.format("The size %d in the Input Stream is not equal to the size given by x(%d) and y(%d) = %d",
-                                        gridSize, this.xSize, this.ySize, this.getSizeInBytes()));
-    }
-    int readBytes = in.read(arr, 0, gridSize);
-    if (readBytes != gridSize) {
-      RSLogger.getLogger().log(Level.SEVERE, String.format("cannot read %d bytes from Input Stream, only %d bytes read",
-                                        gridSize, readBytes));
+    DataGrid grid = new DataGrid(xGrid, yGrid);
+    int bits = grid.xSize * grid.ySize;
+    int bytes = (bits + 7) >>> 3;
+    int count = wordCount(grid.xSize, grid.ySize);
+    long words[] = new long[count];
+    long any = 0L;
+    for (int i = 0; i < count; i += 1)
+    {
+      int n = Math.min(8, bytes - (i << 3));
+      long value = 0L;
+      if (n == 8)
+      {
+        value = Long.reverseBytes(buffer.getLong());
+      }
+      else
+      {
+        for (int b = 0; b < n; b += 1)
+          value |= (buffer.get() & 0xFFL) << (b << 3);
+      }
+      // bits after the last pixel are dropped
+      if (i == count - 1)
+        value &= -1L >>> (-bits & 63);
+      words[i] = value;
+      any |= value;
     }
-    try {
-      this.setGridByByteArray(xSize, ySize, arr);
-    } catch (Exception ex) {
-      RSLogger.getLogger().log(Level.SEVERE, null, ex);
+    if (any != 0L)
+      grid.words = words;
+    return grid;
+  }
+  
+  /**
+   * reads a grid from a bitmap stored row by row, like the glyphs of BDF,
+   * PCF and PSF fonts: every row starts at a byte, a set bit is a set pixel.
+   * The bits are written to the word array directly. The position of the
+   * buffer is not changed.
+   * @param buffer the buffer holding the bitmap
+   * @param offset the index of the first byte of the first row
+   * @param stride the number of bytes from one row to the next
+   * @param xStart the column of the bitmap the grid starts at
+   * @param xGrid the width of the grid
+   * @param yGrid the height of the grid
+   * @param msbFirst true if the highest bit of a byte is its leftmost pixel
+   * @return a new grid with the pixels read
+   * @throws IndexOutOfBoundsException in case the bitmap exceeds the buffer
+   */
+  public static DataGrid readRows(ByteBuffer buffer, int offset, int stride, int xStart, int xGrid, int yGrid, boolean msbFirst)
+  {
+    DataGrid grid = new DataGrid(xGrid, yGrid);
+    int firstByte = xStart >>> 3;
+    int lastByte = (xStart + xGrid - 1) >>> 3;
+    for (int y = 0; y < yGrid; y += 1)
+    {
+      int row = offset + y * stride;
+      for (int k = firstByte; k <= lastByte; k += 1)
+      {
+        int value = buffer.get(row + k) & 0xFF;
+        while (value != 0)
+        {
+          int bit = Integer.numberOfTrailingZeros(value);
+          value &= value - 1;
+          int x = (k << 3) + (msbFirst ? 7 - bit : bit) - xStart;
+          if (x < 0 || x >= xGrid)
+            continue;
+          if (grid.words == null)
+            grid.materialize();
+          int index = x * grid.ySize + y;
+          grid.words[index >>> 6] |= 1L << index;
+        }
+      }
     }
-    
+    return grid;
   }
-  private void readObjectNoData() throws ObjectStreamException 
+  
+  private void writeObject(ObjectOutputStream out) throws IOException
   {
-    this.changeGrid(5, 5);
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("grid", this.getArray());
+    fields.put("xSize", this.xSize);
+    fields.put("ySize", this.ySize);
+    out.writeFields();
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    ObjectInputStream.GetField fields = in.readFields();
+    boolean arr[][] = (boolean[][]) fields.get("grid", null);
+    this.xSize = fields.get("xSize", 0);
+    this.ySize = fields.get("ySize", 0);
+    this.words = null;
+    if (arr != null)
+    {
+      for (int x = 0; x < xSize && x < arr.length; x += 1)
+      {
+        for (int y = 0; y < ySize && y < arr[x].length; y += 1)
+        {
+          if (arr[x][y])
+            set(x, y, true);
+        }
+      }
+    }
   }
-*/
 }
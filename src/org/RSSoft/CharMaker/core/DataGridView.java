@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.io.ObjectStreamException;
+import org.RSSoft.CharMaker.control.models.FontSettings;
+
+/**
+ * This class is a read only window into another grid. No pixels are copied:
+ * every read is passed to the parent grid, with the window offset and an
+ * optional rotation and mirroring (the same as DataGrid.manipulate) applied
+ * to the coordinates. The window and the transformation can be changed, so
+ * one view can be moved over a grid (for example over the stripes of a tall
+ * character) without allocating anything.
+ * @author Richard
+ */
+public class DataGridView extends DataGrid
+{
+  static final long serialVersionUID = 226;
+
+  private transient DataGrid parent;
+  private int xOffset;
+  private int yOffset;
+  private int width;
+  private int height;
+
+  private boolean transpose;
+  private boolean flipX;
+  private boolean flipY;
+
+  /**
+   * construct a view showing the entire parent grid
+   * @param parent the grid to read from
+   */
+  public DataGridView(DataGrid parent)
+  {
+    super(1, 1);
+    this.makeImmutable();
+    this.parent = parent;
+    this.setWindow(0, 0, parent.getXSize(), parent.getYSize());
+  }
+
+  /**
+   * construct a view showing an area of the parent grid
+   * @param parent the grid to read from
+   * @param area the area with offset and size (xEnd and yEnd are used as width
+   *        and height like in DataGrid.copy(DataGrid, GridArea, boolean))
+   */
+  public DataGridView(DataGrid parent, GridArea area)
+  {
+    super(1, 1);
+    this.makeImmutable();
+    this.parent = parent;
+    this.setWindow(area);
+  }
+
+  /**
+   * sets the parent grid, the window is reset to the entire parent grid and
+   * the transformation is kept
+   * @param parent the grid to read from
+   */
+  public void setParent(DataGrid parent)
+  {
+    this.parent = parent;
+    this.setWindow(0, 0, parent.getXSize(), parent.getYSize());
+  }
+
+  /**
+   * returns the grid this view reads from
+   * @return the parent grid
+   */
+  public DataGrid getParent()
+  {
+    return this.parent;
+  }
+
+  /**
+   * moves the window to an area of the parent grid
+   * @param area the area with offset and size. The size is limited to the parent grid.
+   */
+  public void setWindow(GridArea area)
+  {
+    this.setWindow(area.xOffset, area.yOffset, area.xEnd, area.yEnd);
+  }
+
+  /**
+   * moves the window to an area of the parent grid
+   * @param xOffset the first column of the parent
+   * @param yOffset the first row of the parent
+   * @param width the number of columns, limited to the parent grid
+   * @param height the number of rows, limited to the parent grid
+   */
+  public void setWindow(int xOffset, int yOffset, int width, int height)
+  {
+    this.xOffset = xOffset;
+    this.yOffset = yOffset;
+    this.width = Math.min(width, parent.getXSize() - xOffset);
+    this.height = Math.min(height, parent.getYSize() - yOffset);
+    this.updateSize();
+  }
+
+  /**
+   * sets the rotation and mirroring applied when reading the window, see
+   * DataGrid.manipulate(int, boolean, boolean)
+   * @param rotation the rotation, FontSettings.ROTATION_0 to ROTATION_270
+   * @param mirrorHorizontal mirror the columns
+   * @param mirrorVertical mirror the rows
+   * @throws Exception in case the rotation is invalid
+   */
+  public void setTransformation(int rotation, boolean mirrorHorizontal, boolean mirrorVertical) throws Exception
+  {
+    switch (rotation) {
+      case FontSettings.ROTATION_0: {
+        transpose = false; flipX = mirrorHorizontal; flipY = mirrorVertical;
+      } break;
+      case FontSettings.ROTATION_90: {
+        transpose = true; flipX = !mirrorHorizontal; flipY = mirrorVertical;
+      } break;
+      case FontSettings.ROTATION_180: {
+        transpose = false; flipX = !mirrorHorizontal; flipY = !mirrorVertical;
+      } break;
+      case FontSettings.ROTATION_270: {
+        transpose = true; flipX = mirrorHorizontal; flipY = !mirrorVertical;
+      } break;
+      default: {
+        throw new Exception("invalid parameter");
+      }
+    }
+    this.updateSize();
+  }
+
+  private void updateSize()
+  {
+    this.xSize = transpose ? height : width;
+    this.ySize = transpose ? width : height;
+  }
+
+  private int parentX(int x, int y)
+  {
+    int column = transpose ? y : x;
+    return xOffset + (flipX ? width - 1 - column : column);
+  }
+
+  private int parentY(int x, int y)
+  {
+    int row = transpose ? x : y;
+    return yOffset + (flipY ? height - 1 - row : row);
+  }
+
+  @Override
+  protected boolean isPacked()
+  {
+    return false;
+  }
+
+  @Override
+  protected boolean hasFixedPixels()
+  {
+    return false;
+  }
+
+  @Override
+  protected boolean get(int x, int y)
+  {
+    return parent.get(parentX(x, y), parentY(x, y));
+  }
+
+  /**
+   * returns up to 64 pixels of a column of the view. Without rotation the
+   * column is read from the parent at once, else pixel by pixel.
+   */
+  @Override
+  public long getColumn(int x, int y, int count)
+  {
+    if (!transpose)
+    {
+      if (!flipY)
+      {
+        return parent.getColumn(parentX(x, y), yOffset + y, count);
+      }
+      long value = parent.getColumn(parentX(x, y), yOffset + height - y - count, count);
+      return BitMatrix.reverse(value, count);
+    }
+    long value = 0L;
+    for (int k = 0; k < count; k += 1)
+    {
+      if (get(x, y + k))
+        value |= 1L << k;
+    }
+    return value;
+  }
+
+  /**
+   * returns an area containing all set pixels of the view. It is calculated
+   * from the bounds of the parent, so it is the smallest area only if the
+   * window contains the bounds of the parent entirely.
+   * @return the area, xEnd and yEnd are the width and height
+   */
+  @Override
+  public GridArea getBounds()
+  {
+    GridArea bounds = parent.getBounds();
+    int c0 = Math.max(bounds.xOffset, xOffset) - xOffset;
+    int c1 = Math.min(bounds.xOffset + bounds.xEnd, xOffset + width) - xOffset;
+    int r0 = Math.max(bounds.yOffset, yOffset) - yOffset;
+    int r1 = Math.min(bounds.yOffset + bounds.yEnd, yOffset + height) - yOffset;
+    if (c0 >= c1 || r0 >= r1)
+      return new GridArea(0, 0, 0, 0);
+    if (flipX)
+    {
+      int c = width - c1;
+      c1 = width - c0;
+      c0 = c;
+    }
+    if (flipY)
+    {
+      int r = height - r1;
+      r1 = height - r0;
+      r0 = r;
+    }
+    if (transpose)
+      return new GridArea(r0, c0, r1 - r0, c1 - c0);
+    return new GridArea(c0, r0, c1 - c0, r1 - r0);
+  }
+
+  /**
+   * a view is serialized as a plain copy of its pixels
+   * @return a DataGrid with the pixels of the view
+   * @throws ObjectStreamException never
+   */
+  private Object writeReplace() throws ObjectStreamException
+  {
+    return this.copy();
+  }
+}
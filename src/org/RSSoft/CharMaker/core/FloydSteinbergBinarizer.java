@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * This binarizer sets a pixel if its gray value is over 127 and diffuses
+ * the error to the unvisited neighbours by the weights of Floyd and
+ * Steinberg (7/16 right, 3/16 down left, 5/16 down, 1/16 down right).
+ * Every row depends on the one above, so the rows are decided in order.
+ * @author Richard
+ */
+public class FloydSteinbergBinarizer extends Binarizer
+{
+  /**
+   * construct a Floyd-Steinberg binarizer
+   * @param channel the band to read, LUMINANCE for the luminance
+   */
+  public FloydSteinbergBinarizer(int channel)
+  {
+    super(channel);
+  }
+
+  @Override
+  protected long[][] decide(Raster raster, int x, int y, int width, int height)
+  {
+    long rows[][] = new long[height][];
+    int gray[] = new int[width];
+    int samples[] = new int[width];
+    // errors in 1/16, one pixel of margin on both sides
+    int error[] = new int[width + 2];
+    int next[] = new int[width + 2];
+    for (int j = 0; j < height; j += 1)
+    {
+      this.readGray(raster, x, y + j, width, gray, samples);
+      long bits[] = new long[(width + 63) >>> 6];
+      Arrays.fill(next, 0);
+      for (int i = 0; i < width; i += 1)
+      {
+        int value = gray[i] + (error[i + 1] + 8 >> 4);
+        int diff;
+        if (value > 127)
+        {
+          bits[i >>> 6] |= 1L << i;
+          diff = value - 255;
+        }
+        else
+        {
+          diff = value;
+        }
+        error[i + 2] += diff * 7;
+        next[i] += diff * 3;
+        next[i + 1] += diff * 5;
+        next[i + 2] += diff;
+      }
+      int swap[] = error;
+      error = next;
+      next = swap;
+      rows[j] = bits;
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * this class holds static functions to import TrueType or OpenType fonts:
+ * loading the font file and parsing the code points to import. The
+ * characters are rendered from their outlines, see GlyphOutlines.
+ * @author Richard
+ */
+public class FontRasterizer
+{
+  private FontRasterizer() {}
+  
+  /**
+   * loads a font file
+   * @param file the .ttf or .otf file
+   * @return the font, with a size of 1
+   * @throws IOException in case the file cannot be read or holds no font
+   */
+  public static Font loadFont(File file) throws IOException
+  {
+    try {
+      return Font.createFont(Font.TRUETYPE_FONT, file);
+    } catch (FontFormatException ex) {
+      throw new IOException(String.format("%s is not a TrueType or OpenType font", file.getName()), ex);
+    }
+  }
+  
+  /**
+   * parses a list of code points and ranges separated by commas, like
+   * "0x20-0x7E, 0x4E00-0x9FFF, 169". Values starting with 0x or U+ are
+   * hexadecimal, the others decimal.
+   * @param ranges the list
+   * @return the code points in ascending order, each once
+   * @throws Exception in case a value or range is malformed
+   */
+  public static int[] parseCodePoints(String ranges) throws Exception
+  {
+    IntStream codePoints = IntStream.empty();
+    for (String part : ranges.split(","))
+    {
+      part = part.trim();
+      if (part.isEmpty())
+        continue;
+      int dash = part.indexOf('-', 1);
+      int first = parseCodePoint(dash == -1 ? part : part.substring(0, dash));
+      int last = dash == -1 ? first : parseCodePoint(part.substring(dash + 1));
+      if (last < first)
+        throw new Exception(String.format("the range %s ends before it starts", part));
+      codePoints = IntStream.concat(codePoints, IntStream.rangeClosed(first, last));
+    }
+    return codePoints.sorted().distinct().toArray();
+  }
+  
+  private static int parseCodePoint(String value) throws Exception
+  {
+    value = value.trim();
+    int codePoint;
+    try {
+      if (value.startsWith("0x") || value.startsWith("0X") || value.startsWith("U+") || value.startsWith("u+"))
+        codePoint = Integer.parseInt(value.substring(2), 16);
+      else
+        codePoint = Integer.parseInt(value);
+    } catch (NumberFormatException ex) {
+      throw new Exception(String.format("%s is not a code point", value));
+    }
+    if (!Character.isValidCodePoint(codePoint))
+      throw new Exception(String.format("%s is not a code point", value));
+    return codePoint;
+  }
+}
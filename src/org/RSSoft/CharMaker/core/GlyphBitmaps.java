@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import org.RSSoft.CharMaker.core.character.CharacterSet;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * this class holds the static functions shared by the readers of pixel
+ * fonts (BDF, PCF and PSF): mapping a font file, placing a glyph bitmap
+ * into its cell and adding the characters to a new character set.
+ * @author Richard
+ */
+class GlyphBitmaps
+{
+  private GlyphBitmaps() {}
+  
+  /**
+   * maps a font file into memory. Files compressed with gzip (ending with
+   * .gz, like most installed console and X11 fonts) are decompressed into
+   * a buffer on the heap.
+   * @param file the font file
+   * @return the content of the file
+   * @throws IOException in case of IO Error
+   */
+  static ByteBuffer map(File file) throws IOException
+  {
+    if (file.getName().toLowerCase().endsWith(".gz"))
+    {
+      try (InputStream in = new GZIPInputStream(new FileInputStream(file), 1 << 16))
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte buffer[] = new byte[1 << 16];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+          bytes.write(buffer, 0, n);
+        return ByteBuffer.wrap(bytes.toByteArray());
+      }
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException(String.format("file %s is too big", file.getName()));
+      // the mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+  
+  /**
+   * returns the name of a font file without its extensions
+   * @param file the font file
+   * @return the name up to the first dot
+   */
+  static String baseName(File file)
+  {
+    String name = file.getName();
+    int dot = name.indexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+  
+  /**
+   * places the bitmap of a glyph into its cell, the rows above and below the
+   * cell are dropped. The cell is widened to the ink left of the origin and
+   * past the advance, like the f and j of italic fonts. Cells are at least 5
+   * pixels wide and high, like the cells of the other importers.
+   * @param buffer the buffer holding the bitmap, row by row
+   * @param offset the index of the first byte of the bitmap
+   * @param stride the number of bytes from one row to the next
+   * @param boxWidth the width of the bitmap
+   * @param boxHeight the height of the bitmap
+   * @param msbFirst true if the highest bit of a byte is its leftmost pixel
+   * @param left the column of the cell the bitmap starts at, may be negative
+   * @param top the row of the cell the bitmap starts at, may be negative
+   * @param cellWidth the width of the cell, the advance of the glyph
+   * @param cellHeight the height of the cell
+   * @return a new immutable grid holding only the bounding box of the set pixels
+   */
+  static DataGrid place(ByteBuffer buffer, int offset, int stride, int boxWidth, int boxHeight, boolean msbFirst,
+                        int left, int top, int cellWidth, int cellHeight)
+  {
+    cellWidth = Math.max(5, cellWidth);
+    cellHeight = Math.max(5, cellHeight);
+    int yStart = Math.max(0, -top);
+    int height = Math.min(boxHeight, cellHeight - top) - yStart;
+    if (boxWidth <= 0 || height <= 0)
+      return DataGrid.empty(cellWidth, cellHeight);
+    DataGrid box = DataGrid.readRows(buffer, offset + yStart * stride, stride, 0, boxWidth, height, msbFirst).makeImmutable();
+    // the bitmap may exceed the ink, the cell is sized from the pixels set
+    GridArea ink = box.getBounds();
+    if (ink.xEnd == 0)
+      return DataGrid.empty(cellWidth, cellHeight);
+    int inkLeft = left + ink.xOffset;
+    int cellLeft = Math.min(0, inkLeft);
+    int width = Math.max(cellWidth, inkLeft + ink.xEnd) - cellLeft;
+    return new TrimmedDataGrid(width, cellHeight, left - cellLeft, top + yStart, box).makeImmutable();
+  }
+  
+  /**
+   * adds characters to a new character set of variable width in one bulk
+   * update, so the list is notified once
+   * @param fontName the name of the font
+   * @param height the height of the cells
+   * @param codePoints the code points
+   * @param grids the grids of the code points, null entries are skipped
+   * @param count the number of characters
+   * @return the character set
+   */
+  static CharacterSet build(String fontName, int height, int codePoints[], DataGrid grids[], int count)
+  {
+    CharacterSet charSet = new CharacterSet(0, Math.max(5, height), fontName);
+    int skipped = charSet.addCharacters(codePoints, grids, count);
+    if (skipped > 0)
+      RSLogger.getLogger().log(Level.WARNING, String.format("%d characters skipped", skipped));
+    return charSet;
+  }
+}
@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.logging.Level;
 import org.RSSoft.CharMaker.control.models.FontSettings;
 import org.RSSoft.CharMaker.core.character.CharacterDescriptor;
@@ -71,8 +72,46 @@ public class HeaderWriter
 */  
   private final FontSettings settings;
   
+  /**
+   * the grid each character is copied into before it is inverted,
+   * reused for all characters
+   */
+  private final DataGrid workGrid;
+  
+  /**
+   * rotated and mirrored view of the character (or of workGrid if inverted)
+   */
+  private final DataGridView characterView;
+  
+  /**
+   * view of one stripe of characterView, moved over the character when it is
+   * organized in columns
+   */
+  private final DataGridView stripeView;
+  
 //  private final String datatype_name;
-  private final String output_hex;  
+  private String output_hex;  
+  
+  /**
+   * the text written for each character by the last call to writeHeader.
+   * It is written again as long as neither the character (its revision) nor
+   * the settings changed, so only edited characters are encoded again.
+   */
+  private HashMap<CharacterDescriptor, CharacterText> written;
+  private CharacterSet writtenSet;
+  private String writtenSettings;
+  
+  private static class CharacterText
+  {
+    final long revision;
+    final String text;
+    
+    CharacterText(long revision, String text)
+    {
+      this.revision = revision;
+      this.text = text;
+    }
+  }
   
   public HeaderWriter(FontSettings settings)
   {
@@ -85,6 +124,25 @@ public class HeaderWriter
     this.mirrorVertical = mirrorVertical;
   */
     this.settings = settings;
+    this.workGrid = new DataGrid(1, 1);
+    this.characterView = new DataGridView(workGrid);
+    this.stripeView = new DataGridView(characterView);
+    this.written = new HashMap<>();
+    this.selectOutputFormat();
+  }
+  
+  /**
+   * returns whether this writer writes with the given settings object
+   * @param settings the settings
+   * @return true if the writer was constructed with settings
+   */
+  public boolean usesSettings(FontSettings settings)
+  {
+    return this.settings == settings;
+  }
+  
+  private void selectOutputFormat()
+  {
     switch (settings.bits) {
       case FontSettings.DATATYPE_8Bit: this.output_hex = this.OUTPUT_HEX_8BIT; break;
       case FontSettings.DATATYPE_16Bit: this.output_hex = this.OUTPUT_HEX_16BIT; break;
@@ -92,7 +150,41 @@ public class HeaderWriter
       case FontSettings.DATATYPE_64Bit: this.output_hex = this.OUTPUT_HEX_64BIT; break;
       default: this.output_hex = this.OUTPUT_HEX_8BIT; break;
     }
-
+  }
+  
+  /**
+   * returns the settings the text of a character depends on as string
+   */
+  private String describeSettings(boolean commentEnable)
+  {
+    return String.format("%d %d %d %d %b %b %s %d %d %b %b %b",
+            settings.rotation, settings.bitOrder, settings.endianOrder, settings.alignment,
+            settings.mirrorHorizontal, settings.mirrorVertical, settings.dataType, settings.bits,
+            settings.scanDirection, settings.organizedInColumns, settings.invert, commentEnable);
+  }
+  
+  /**
+   * returns the text written for one character
+   */
+  private String writeCharacter(CharacterDescriptor c, boolean commentEnable)
+  {
+    StringBuilder text = new StringBuilder();
+    text.append("// ");
+    if (c.getCodePoint() >= 0x20 && c.getCodePoint() < 0x7F) {
+      text.append((char) c.getCodePoint());
+    } else {
+      text.append(String.format("U+%04X", c.getCodePoint()));
+    }
+    text.append("\n");
+    
+    if (commentEnable) {
+      text.append(this.makeComment(c));
+      text.append("\n");
+    }
+    text.append(this.declareCharacter(c));
+    text.append(COMMENT_LINEBREAK);
+    text.append("\n\n");
+    return text.toString();
   }
 /*  
   public HeaderWriter(int rotation, int bitOrder, boolean alignAtTop, int type, String typename, boolean mirrorHorizontal, boolean mirrorVertical)
@@ -131,6 +223,31 @@ public class HeaderWriter
         return retVal;
     }
   
+    /**
+     * returns the rows of grid as bits, collected from the runs of set pixels
+     */
+    private static long[][] getRows(DataGrid grid) {
+        final long rows[][] = new long[grid.getYSize()][(grid.getXSize() + 63) >>> 6];
+        grid.forEachSpan((y, xStart, xEnd) -> BitMatrix.setRange(rows[y], xStart, xEnd));
+        return rows;
+    }
+    
+    /**
+     * reads the column x of grid as bits into line, 64 pixels at once.
+     * Columns and chunks outside bounds are not set, they are not read.
+     */
+    private static void getColumn(DataGrid grid, GridArea bounds, int x, long line[]) {
+        boolean inside = x >= bounds.xOffset && x < bounds.xOffset + bounds.xEnd;
+        for (int y = 0; y < grid.getYSize(); y += 64) {
+            int count = Math.min(64, grid.getYSize() - y);
+            if (inside && y < bounds.yOffset + bounds.yEnd && y + count > bounds.yOffset) {
+                line[y >>> 6] = grid.getColumn(x, y, count);
+            } else {
+                line[y >>> 6] = 0L;
+            }
+        }
+    }
+    
     private int aquireCharacter(StringBuffer characterData, DataGrid grid) {
         long value = 0;
         int elements = 0;
@@ -138,12 +255,24 @@ public class HeaderWriter
         ScanDirectionIterator it;
         try {
             it = new ScanDirectionIterator(grid, settings.scanDirection);
+            // the pixels are read a line at a time: rows from the runs of set
+            // pixels, columns 64 pixels at once within the bounds
+            boolean rowsFirst = it.isHorizontalOverVertical();
+            long rows[][] = rowsFirst ? getRows(grid) : null;
+            long line[] = rowsFirst ? null : new long[(grid.getYSize() + 63) >>> 6];
+            GridArea bounds = rowsFirst ? null : grid.getBounds();
             for (it.outer_init(); it.outer_codition(); it.outer_iterate()) {
                 int pos = 0;
+                if (rowsFirst) {
+                    line = rows[it.getY()];
+                } else {
+                    getColumn(grid, bounds, it.getX(), line);
+                }
                 
                 for (it.inner_init(); it.inner_codition(); it.inner_iterate()) {
                     int b = 0;
-                    if (grid.isSetAt(it.getX(), it.getY())) {
+                    int inner = rowsFirst ? it.getX() : it.getY();
+                    if ((line[inner >>> 6] & (1L << inner)) != 0) {
                         if (settings.bitOrder == FontSettings.BITORDER_LSB) {
                             b = 1;
                         } else if (settings.bitOrder == FontSettings.BITORDER_MSB) {
@@ -320,14 +449,29 @@ public class HeaderWriter
   {
     String output = "";
     
-    DataGrid grid = null;
+    DataGrid grid;
     // first, rotate, mirror and invert as the user whishes:
     try {
-        grid = c.getGrid().copy();
-        grid.manipulate(settings.rotation, settings.mirrorHorizontal, settings.mirrorVertical);
-        if (settings.invert) {
-            grid.invertAll();
+        boolean rotated = settings.rotation == FontSettings.ROTATION_90 || settings.rotation == FontSettings.ROTATION_270;
+        if (rotated) {
+            // a rotated view reads pixel by pixel, manipulate transposes in blocks
+            workGrid.copyFrom(c.getGrid());
+            if (settings.invert)
+                workGrid.invertAll();
+            workGrid.manipulate(settings.rotation, settings.mirrorHorizontal, settings.mirrorVertical);
+            characterView.setParent(workGrid);
+            characterView.setTransformation(FontSettings.ROTATION_0, false, false);
+        } else {
+            if (settings.invert) {
+                workGrid.copyFrom(c.getGrid());
+                workGrid.invertAll();
+                characterView.setParent(workGrid);
+            } else {
+                characterView.setParent(c.getGrid());
+            }
+            characterView.setTransformation(settings.rotation, settings.mirrorHorizontal, settings.mirrorVertical);
         }
+        grid = characterView;
     } catch (Exception ex) {
         RSLogger.getLogger().log(Level.SEVERE, "could not continue: ", ex);
         output = output.concat("#error: " + ex.getMessage());
@@ -347,35 +491,19 @@ public class HeaderWriter
         lines += 1;
       }
       
-      // iterate in colunms over the grid
+      // iterate in colunms over the grid, the last stripe may be narrower
+      stripeView.setParent(grid);
       for (int i=0; i<lines; i+=1) {
-        GridArea area = new GridArea();
-        
         if (horizontalOverVertical) {
-            area.xOffset = i*settings.bits;
-            area.xEnd = settings.bits;
-            area.yOffset = 0;
-            area.yEnd = grid.getYSize();
-        } else {            
-            area.yOffset = i*settings.bits;
-            area.yEnd = settings.bits;
-            area.xOffset = 0;
-            area.xEnd = grid.getXSize();
+            stripeView.setWindow(i*settings.bits, 0, settings.bits, grid.getYSize());
+        } else {
+            stripeView.setWindow(0, i*settings.bits, grid.getXSize(), settings.bits);
         }
         
-        try {
-            DataGrid subGrid = new DataGrid(1, 1);
-            grid.copy(subGrid, area, false);
-
-            characterData.append("\t\t");
-            elements = this.aquireCharacter(characterData, subGrid);        
-            characterData.append("\n");
-        } catch (Exception ex) {
-            RSLogger.getLogger().log(Level.SEVERE, null, ex);
-        }
+        characterData.append("\t\t");
+        elements += this.aquireCharacter(characterData, stripeView);
+        characterData.append(i < lines - 1 ? ",\n" : "\n");
       }
-      
-      output = output.concat(String.format(" character_%s[%d] = {", c.getDescriptor(), elements));
     } else {
       
       elements = this.aquireCharacter(characterData, grid);
@@ -443,20 +571,24 @@ public class HeaderWriter
     fontHeader.writeBytes(PRECOMPILER_DEFINE + " " + font_name + "_HEIGHT ");
     fontHeader.writeBytes(String.format("%d\n", charaSet.getFontHeight()));
     
+    this.selectOutputFormat();
+    String currentSettings = this.describeSettings(commentEnable);
+    if (charaSet != this.writtenSet || !currentSettings.equals(this.writtenSettings)) {
+      this.written.clear();
+    }
+    HashMap<CharacterDescriptor, CharacterText> current = new HashMap<>();
     for (CharacterDescriptor c : charaSet.getCharacters())
     {
-      fontHeader.writeBytes("// ");
-      fontHeader.writeByte(c.getCharacter());
-      fontHeader.writeBytes("\n");
-      
-      if (commentEnable) {
-        fontHeader.writeBytes(this.makeComment(c));
-        fontHeader.writeBytes("\n");
+      CharacterText text = this.written.get(c);
+      if (text == null || text.revision != c.getRevision()) {
+        text = new CharacterText(c.getRevision(), this.writeCharacter(c, commentEnable));
       }
-      fontHeader.writeBytes(this.declareCharacter(c));
-      fontHeader.writeBytes(COMMENT_LINEBREAK);
-      fontHeader.writeBytes("\n\n");
+      current.put(c, text);
+      fontHeader.writeBytes(text.text);
     }
+    this.written = current;
+    this.writtenSet = charaSet;
+    this.writtenSettings = currentSettings;
     
     fontHeader.writeByte('\n');
     
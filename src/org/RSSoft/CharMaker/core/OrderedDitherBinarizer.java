@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+/**
+ * This binarizer renders gray values as a pattern of set pixels with the
+ * 8x8 Bayer matrix. The pattern is aligned to the raster coordinates, so
+ * characters cut from one page share it.
+ * @author Richard
+ */
+public class OrderedDitherBinarizer extends RowBinarizer
+{
+  private static final int BAYER[] = {
+     0, 32,  8, 40,  2, 34, 10, 42,
+    48, 16, 56, 24, 50, 18, 58, 26,
+    12, 44,  4, 36, 14, 46,  6, 38,
+    60, 28, 52, 20, 62, 30, 54, 22,
+     3, 35, 11, 43,  1, 33,  9, 41,
+    51, 19, 59, 27, 49, 17, 57, 25,
+    15, 47,  7, 39, 13, 45,  5, 37,
+    63, 31, 55, 23, 61, 29, 53, 21
+  };
+
+  /**
+   * construct an ordered dither binarizer
+   * @param channel the band to read, LUMINANCE for the luminance
+   */
+  public OrderedDitherBinarizer(int channel)
+  {
+    super(channel);
+  }
+
+  @Override
+  protected void decideRow(int x, int y, int gray[], int width, long bits[])
+  {
+    int row = (y & 7) << 3;
+    for (int i = 0; i < width; i += 1)
+    {
+      if (gray[i] > BAYER[row + ((x + i) & 7)] * 4 + 2)
+        bits[i >>> 6] |= 1L << i;
+    }
+  }
+}
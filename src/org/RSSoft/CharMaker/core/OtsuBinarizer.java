@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.Raster;
+
+/**
+ * This binarizer chooses the threshold by the method of Otsu: the gray
+ * value that separates the histogram of the raster into the two classes
+ * with the largest variance between them. Calibrated to a whole page it
+ * returns a ThresholdBinarizer, so all characters of the page are decided
+ * alike, otherwise the histogram of every converted area is computed.
+ * @author Richard
+ */
+public class OtsuBinarizer extends Binarizer
+{
+  /**
+   * construct an Otsu binarizer
+   * @param channel the band to read, LUMINANCE for the luminance
+   */
+  public OtsuBinarizer(int channel)
+  {
+    super(channel);
+  }
+
+  @Override
+  public Binarizer calibrate(Raster raster)
+  {
+    return new ThresholdBinarizer(channel, this.threshold(raster, raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight()));
+  }
+
+  @Override
+  protected long[][] decide(Raster raster, int x, int y, int width, int height)
+  {
+    return new ThresholdBinarizer(channel, this.threshold(raster, x, y, width, height)).decide(raster, x, y, width, height);
+  }
+
+  /**
+   * computes the Otsu threshold of an area of a raster
+   * @return the threshold, pixels over it are set
+   */
+  private int threshold(Raster raster, int x, int y, int width, int height)
+  {
+    long histogram[] = new long[256];
+    int gray[] = new int[width];
+    int samples[] = new int[width];
+    for (int j = 0; j < height; j += 1)
+    {
+      this.readGray(raster, x, y + j, width, gray, samples);
+      for (int i = 0; i < width; i += 1)
+        histogram[gray[i]] += 1;
+    }
+
+    long total = (long) width * height;
+    double sum = 0;
+    for (int i = 0; i < 256; i += 1)
+      sum += (double) i * histogram[i];
+
+    double sumBelow = 0;
+    long below = 0;
+    double best = -1;
+    int threshold = 127;
+    for (int t = 0; t < 255; t += 1)
+    {
+      below += histogram[t];
+      sumBelow += (double) t * histogram[t];
+      long above = total - below;
+      if (below == 0 || above == 0)
+        continue;
+      double difference = sumBelow / below - (sum - sumBelow) / above;
+      double variance = (double) below * above * difference * difference;
+      if (variance > best)
+      {
+        best = variance;
+        threshold = t;
+      }
+    }
+    return threshold;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import org.RSSoft.CharMaker.control.ControlCharacterSet;
+import org.RSSoft.CharMaker.core.character.CharacterSet;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * this class holds static functions to read an X11 PCF font (Portable
+ * Compiled Format) into a character set. The file is mapped into memory
+ * and its tables are read from the buffer in place: the metrics, the
+ * bitmaps, the encodings, the accelerators for ascent and descent and the
+ * properties for the name. The glyph bitmaps are converted into packed
+ * grids straight from the buffer. The encodings are taken as unicode code
+ * points.
+ * @author Richard
+ */
+public class PCFReader
+{
+  /**
+   * "\1fcp" read little endian
+   */
+  private static final int MAGIC = 0x70636601;
+  
+  private static final int PCF_PROPERTIES = 1 << 0;
+  private static final int PCF_ACCELERATORS = 1 << 1;
+  private static final int PCF_METRICS = 1 << 2;
+  private static final int PCF_BITMAPS = 1 << 3;
+  private static final int PCF_BDF_ENCODINGS = 1 << 5;
+  private static final int PCF_BDF_ACCELERATORS = 1 << 8;
+  
+  private static final int PCF_GLYPH_PAD_MASK = 3;
+  private static final int PCF_BYTE_MASK = 1 << 2;
+  private static final int PCF_BIT_MASK = 1 << 3;
+  private static final int PCF_SCAN_UNIT_SHIFT = 4;
+  private static final int PCF_COMPRESSED_METRICS = 0x100;
+  
+  private static final int NO_GLYPH = 0xFFFF;
+  
+  private PCFReader() {}
+  
+  /**
+   * reads a PCF font and makes it the current character set
+   * @param file the .pcf file, may be compressed with gzip (.pcf.gz)
+   * @param charaListController the controller the character set is set to
+   */
+  public static void readPCF(File file, ControlCharacterSet charaListController)
+  {
+    try {
+      CharacterSet charSet = read(file);
+      if (charaListController != null)
+        charaListController.setCurrentCharacterSet(charSet);
+    } catch (IOException | RuntimeException ex) {
+      RSLogger.getLogger().log(Level.WARNING, "", ex);
+    }
+  }
+  
+  /**
+   * reads a PCF font into a new character set of variable width. The cells
+   * are as high as the font ascent plus descent and as wide as the advance
+   * of the glyph.
+   * @param file the .pcf file, may be compressed with gzip (.pcf.gz)
+   * @return the character set
+   * @throws IOException in case of IO Error or a malformed file
+   */
+  public static CharacterSet read(File file) throws IOException
+  {
+    try {
+      return read(GlyphBitmaps.map(file), GlyphBitmaps.baseName(file));
+    } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+      throw new IOException(String.format("%s is truncated", file.getName()), ex);
+    }
+  }
+  
+  private static CharacterSet read(ByteBuffer file, String defaultName) throws IOException
+  {
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    if (file.getInt(0) != MAGIC)
+      throw new IOException("not a PCF font");
+    int tableCount = file.getInt(4);
+    ByteBuffer properties = null;
+    ByteBuffer accelerators = null;
+    ByteBuffer metrics = null;
+    ByteBuffer bitmaps = null;
+    ByteBuffer encodings = null;
+    for (int i = 0; i < tableCount; i += 1)
+    {
+      int entry = 8 + 16 * i;
+      int type = file.getInt(entry);
+      ByteBuffer table = table(file, file.getInt(entry + 12));
+      switch (type)
+      {
+        case PCF_PROPERTIES: properties = table; break;
+        case PCF_ACCELERATORS: if (accelerators == null) accelerators = table; break;
+        // the BDF accelerators cover the whole font, they are preferred
+        case PCF_BDF_ACCELERATORS: accelerators = table; break;
+        case PCF_METRICS: metrics = table; break;
+        case PCF_BITMAPS: bitmaps = table; break;
+        case PCF_BDF_ENCODINGS: encodings = table; break;
+        default: break;
+      }
+    }
+    if (metrics == null || bitmaps == null || encodings == null)
+      throw new IOException("the PCF font has no metrics, bitmaps or encodings");
+    
+    // metrics: left and right side bearing, advance, ascent and descent per glyph
+    int metricsFormat = format(metrics);
+    int glyphCount = (metricsFormat & PCF_COMPRESSED_METRICS) != 0 ? metrics.getShort() & 0xFFFF : metrics.getInt();
+    int glyphMetrics[] = new int[5 * glyphCount];
+    for (int i = 0; i < 5 * glyphCount; i += 5)
+    {
+      if ((metricsFormat & PCF_COMPRESSED_METRICS) != 0)
+      {
+        for (int k = 0; k < 5; k += 1)
+          glyphMetrics[i + k] = (metrics.get() & 0xFF) - 0x80;
+      }
+      else
+      {
+        for (int k = 0; k < 5; k += 1)
+          glyphMetrics[i + k] = metrics.getShort();
+        metrics.getShort();
+      }
+    }
+    
+    int ascent = 0;
+    int descent = 0;
+    if (accelerators != null)
+    {
+      accelerators.position(accelerators.position() + 8);
+      ascent = accelerators.getInt();
+      descent = accelerators.getInt();
+    }
+    else
+    {
+      for (int i = 0; i < 5 * glyphCount; i += 5)
+      {
+        ascent = Math.max(ascent, glyphMetrics[i + 3]);
+        descent = Math.max(descent, glyphMetrics[i + 4]);
+      }
+    }
+    
+    // bitmaps: offsets into the data, rows padded to the glyph pad
+    int bitmapFormat = format(bitmaps);
+    if (bitmaps.getInt() != glyphCount)
+      throw new IOException("the PCF font has not as many bitmaps as metrics");
+    int offsets[] = new int[glyphCount];
+    for (int i = 0; i < glyphCount; i += 1)
+      offsets[i] = bitmaps.getInt();
+    bitmaps.position(bitmaps.position() + 16);
+    ByteBuffer data = bitmaps.slice();
+    int pad = 1 << (bitmapFormat & PCF_GLYPH_PAD_MASK);
+    int unit = 1 << ((bitmapFormat >> PCF_SCAN_UNIT_SHIFT) & 3);
+    boolean msbFirst = (bitmapFormat & PCF_BIT_MASK) != 0;
+    boolean swap = unit > 1 && ((bitmapFormat & PCF_BYTE_MASK) != 0) != msbFirst;
+    
+    // encodings: a glyph index per two byte code
+    int firstColumn = encodings.getShort() & 0xFFFF;
+    int lastColumn = encodings.getShort() & 0xFFFF;
+    int firstRow = encodings.getShort() & 0xFFFF;
+    int lastRow = encodings.getShort() & 0xFFFF;
+    encodings.getShort();
+    int columns = lastColumn - firstColumn + 1;
+    int codes = Math.max(0, columns) * Math.max(0, lastRow - firstRow + 1);
+    
+    int codePoints[] = new int[codes];
+    DataGrid grids[] = new DataGrid[codes];
+    DataGrid converted[] = new DataGrid[glyphCount];
+    int count = 0;
+    for (int i = 0; i < codes; i += 1)
+    {
+      int index = encodings.getShort() & 0xFFFF;
+      if (index == NO_GLYPH || index >= glyphCount)
+        continue;
+      if (converted[index] == null)
+      {
+        int k = 5 * index;
+        int width = glyphMetrics[k + 1] - glyphMetrics[k];
+        int height = glyphMetrics[k + 3] + glyphMetrics[k + 4];
+        int stride = ((width + 8 * pad - 1) / (8 * pad)) * pad;
+        ByteBuffer bitmap = data;
+        int offset = offsets[index];
+        if (swap)
+        {
+          bitmap = swapUnits(data, offset, stride * height, unit);
+          offset = 0;
+        }
+        converted[index] = GlyphBitmaps.place(bitmap, offset, stride, width, height, msbFirst,
+                                              glyphMetrics[k], ascent - glyphMetrics[k + 3], glyphMetrics[k + 2], ascent + descent);
+      }
+      codePoints[count] = (firstRow + i / columns) << 8 | (firstColumn + i % columns);
+      grids[count] = converted[index];
+      count += 1;
+    }
+    
+    String name = properties == null ? null : readProperty(properties, "FAMILY_NAME");
+    return GlyphBitmaps.build(name != null ? name : defaultName, ascent + descent, codePoints, grids, count);
+  }
+  
+  /**
+   * returns a buffer on a table, positioned after its format and in the
+   * byte order given by the format
+   */
+  private static ByteBuffer table(ByteBuffer file, int offset)
+  {
+    ByteBuffer table = file.duplicate();
+    table.position(offset);
+    table = table.slice();
+    table.order((format(table) & PCF_BYTE_MASK) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    table.position(4);
+    return table;
+  }
+  
+  /**
+   * returns the format of a table, it is stored little endian in every table
+   */
+  private static int format(ByteBuffer table)
+  {
+    return table.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+  }
+  
+  /**
+   * copies a bitmap whose bytes are ordered within scan units against its
+   * bit order, with the bytes of each unit reversed
+   */
+  private static ByteBuffer swapUnits(ByteBuffer data, int offset, int length, int unit)
+  {
+    byte swapped[] = new byte[length];
+    for (int i = 0; i < length; i += 1)
+      swapped[i] = data.get(offset + (i - i % unit) + (unit - 1 - i % unit));
+    return ByteBuffer.wrap(swapped);
+  }
+  
+  /**
+   * returns a string property
+   * @return the value, null if the font has no such string property
+   */
+  private static String readProperty(ByteBuffer properties, String name)
+  {
+    int count = properties.getInt();
+    int records = properties.position();
+    int strings = records + 9 * count + ((count & 3) == 0 ? 0 : 4 - (count & 3)) + 4;
+    for (int i = 0; i < count; i += 1)
+    {
+      int record = records + 9 * i;
+      boolean isString = properties.get(record + 4) != 0;
+      if (isString && name.equals(readString(properties, strings + properties.getInt(record))))
+        return readString(properties, strings + properties.getInt(record + 5));
+    }
+    return null;
+  }
+  
+  private static String readString(ByteBuffer buffer, int offset)
+  {
+    int end = offset;
+    while (buffer.get(end) != 0)
+      end += 1;
+    byte bytes[] = new byte[end - offset];
+    for (int i = 0; i < bytes.length; i += 1)
+      bytes[i] = buffer.get(offset + i);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.logging.Level;
+import org.RSSoft.CharMaker.control.ControlCharacterSet;
+import org.RSSoft.CharMaker.core.character.CharacterSet;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * this class holds static functions to read a Linux console font (PC
+ * Screen Font, version 1 and 2) into a character set. The file is mapped
+ * into memory, the glyphs are converted into packed grids straight from
+ * the buffer. With a unicode table every code point of a glyph is added,
+ * sequences of several code points are skipped. Without a table the glyph
+ * number is taken as code point.
+ * @author Richard
+ */
+public class PSFReader
+{
+  private static final int PSF1_MAGIC = 0x0436;
+  private static final int PSF1_MODE512 = 0x01;
+  private static final int PSF1_MODEHASTAB = 0x02;
+  private static final int PSF1_MODEHASSEQ = 0x04;
+  private static final int PSF1_SEPARATOR = 0xFFFF;
+  private static final int PSF1_STARTSEQ = 0xFFFE;
+  
+  private static final int PSF2_MAGIC = 0x864AB572;
+  private static final int PSF2_HAS_UNICODE_TABLE = 0x01;
+  private static final int PSF2_SEPARATOR = 0xFF;
+  private static final int PSF2_STARTSEQ = 0xFE;
+  
+  private PSFReader() {}
+  
+  /**
+   * reads a PSF font and makes it the current character set
+   * @param file the .psf or .psfu file, may be compressed with gzip (.psf.gz)
+   * @param charaListController the controller the character set is set to
+   */
+  public static void readPSF(File file, ControlCharacterSet charaListController)
+  {
+    try {
+      CharacterSet charSet = read(file);
+      if (charaListController != null)
+        charaListController.setCurrentCharacterSet(charSet);
+    } catch (IOException | RuntimeException ex) {
+      RSLogger.getLogger().log(Level.WARNING, "", ex);
+    }
+  }
+  
+  /**
+   * reads a PSF font into a new character set, all cells have the size of
+   * the font
+   * @param file the .psf or .psfu file, may be compressed with gzip (.psf.gz)
+   * @return the character set
+   * @throws IOException in case of IO Error or a malformed file
+   */
+  public static CharacterSet read(File file) throws IOException
+  {
+    ByteBuffer buffer = GlyphBitmaps.map(file).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (buffer.limit() >= 4 && buffer.getInt(0) == PSF2_MAGIC)
+        return readPSF2(buffer, GlyphBitmaps.baseName(file));
+      if (buffer.limit() >= 2 && (buffer.getShort(0) & 0xFFFF) == PSF1_MAGIC)
+        return readPSF1(buffer, GlyphBitmaps.baseName(file));
+    } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+      throw new IOException(String.format("%s is truncated", file.getName()), ex);
+    }
+    throw new IOException(String.format("%s is not a PSF font", file.getName()));
+  }
+  
+  /**
+   * collects the code points of the glyphs and converts every glyph once
+   */
+  private static class Mapping
+  {
+    final ByteBuffer buffer;
+    final int start;
+    final int glyphSize;
+    final int stride;
+    final int width;
+    final int height;
+    final DataGrid converted[];
+    int codePoints[];
+    DataGrid grids[];
+    int count;
+    
+    Mapping(ByteBuffer buffer, int start, int glyphs, int glyphSize, int width, int height)
+    {
+      this.buffer = buffer;
+      this.start = start;
+      this.glyphSize = glyphSize;
+      this.stride = (width + 7) >>> 3;
+      this.width = width;
+      this.height = height;
+      this.converted = new DataGrid[glyphs];
+      this.codePoints = new int[glyphs];
+      this.grids = new DataGrid[glyphs];
+      this.count = 0;
+    }
+    
+    void add(int codePoint, int glyph)
+    {
+      if (codePoint < 0 || codePoint > Character.MAX_CODE_POINT)
+        return;
+      if (converted[glyph] == null)
+        converted[glyph] = GlyphBitmaps.place(buffer, start + glyph * glyphSize, stride, width, height, true, 0, 0, width, height);
+      if (count == codePoints.length)
+      {
+        codePoints = Arrays.copyOf(codePoints, 2 * count);
+        grids = Arrays.copyOf(grids, 2 * count);
+      }
+      codePoints[count] = codePoint;
+      grids[count] = converted[glyph];
+      count += 1;
+    }
+    
+    CharacterSet build(String fontName)
+    {
+      return GlyphBitmaps.build(fontName, height, codePoints, grids, count);
+    }
+  }
+  
+  private static CharacterSet readPSF1(ByteBuffer buffer, String fontName) throws IOException
+  {
+    int mode = buffer.get(2) & 0xFF;
+    int height = buffer.get(3) & 0xFF;
+    int glyphs = (mode & PSF1_MODE512) != 0 ? 512 : 256;
+    Mapping mapping = new Mapping(buffer, 4, glyphs, height, 8, height);
+    int table = 4 + glyphs * height;
+    if ((mode & (PSF1_MODEHASTAB | PSF1_MODEHASSEQ)) == 0)
+    {
+      for (int i = 0; i < glyphs; i += 1)
+        mapping.add(i, i);
+      return mapping.build(fontName);
+    }
+    
+    buffer.position(table);
+    for (int i = 0; i < glyphs; i += 1)
+    {
+      boolean sequence = false;
+      for (int value = buffer.getShort() & 0xFFFF; value != PSF1_SEPARATOR; value = buffer.getShort() & 0xFFFF)
+      {
+        if (value == PSF1_STARTSEQ)
+          sequence = true;
+        else if (!sequence)
+          mapping.add(value, i);
+      }
+    }
+    return mapping.build(fontName);
+  }
+  
+  private static CharacterSet readPSF2(ByteBuffer buffer, String fontName) throws IOException
+  {
+    int headerSize = buffer.getInt(8);
+    int flags = buffer.getInt(12);
+    int glyphs = buffer.getInt(16);
+    int glyphSize = buffer.getInt(20);
+    int height = buffer.getInt(24);
+    int width = buffer.getInt(28);
+    if (glyphs < 0 || glyphSize < 0 || height < 0 || width < 0 || ((width + 7) >>> 3) * height > glyphSize
+            || headerSize < 32 || (long) headerSize + (long) glyphs * glyphSize > buffer.limit())
+      throw new IOException("the PSF2 header is invalid");
+    Mapping mapping = new Mapping(buffer, headerSize, glyphs, glyphSize, width, height);
+    if ((flags & PSF2_HAS_UNICODE_TABLE) == 0)
+    {
+      for (int i = 0; i < glyphs; i += 1)
+        mapping.add(i, i);
+      return mapping.build(fontName);
+    }
+    
+    // UTF-8 code points, a sequence starts with 0xFE, a glyph ends with 0xFF
+    buffer.position(headerSize + glyphs * glyphSize);
+    for (int i = 0; i < glyphs; i += 1)
+    {
+      boolean sequence = false;
+      for (int b = buffer.get() & 0xFF; b != PSF2_SEPARATOR; b = buffer.get() & 0xFF)
+      {
+        if (b == PSF2_STARTSEQ)
+        {
+          sequence = true;
+          continue;
+        }
+        int codePoint;
+        int following;
+        if (b < 0x80) { codePoint = b; following = 0; }
+        else if (b >= 0xF0) { codePoint = b & 0x07; following = 3; }
+        else if (b >= 0xE0) { codePoint = b & 0x0F; following = 2; }
+        else if (b >= 0xC0) { codePoint = b & 0x1F; following = 1; }
+        else throw new IOException(String.format("invalid UTF-8 in the unicode table of glyph %d", i));
+        for (int k = 0; k < following; k += 1)
+          codePoint = codePoint << 6 | (buffer.get() & 0x3F);
+        if (!sequence)
+          mapping.add(codePoint, i);
+      }
+    }
+    return mapping.build(fontName);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * this class holds static functions reading a band of a raster a row at a
+ * time. The rasters of the common image types (byte gray, byte BGR and
+ * ABGR, int RGB and ARGB) are read from their data array directly, the others
+ * by Raster.getSamples, so no method is called per pixel.
+ * @author Richard
+ */
+public class RasterRows
+{
+  private RasterRows() {}
+
+  /**
+   * reads the samples of the first band of a part of a row
+   * @param raster the raster
+   * @param x the first column, in raster coordinates
+   * @param y the row, in raster coordinates
+   * @param count the number of samples
+   * @param samples receives the samples, at least count long
+   * @throws ArrayIndexOutOfBoundsException if the row part is not in the raster
+   */
+  public static void readRow(Raster raster, int x, int y, int count, int samples[])
+  {
+    readRow(raster, x, y, count, 0, samples);
+  }
+
+  /**
+   * reads the samples of a band of a part of a row
+   * @param raster the raster
+   * @param x the first column, in raster coordinates
+   * @param y the row, in raster coordinates
+   * @param count the number of samples
+   * @param band the band
+   * @param samples receives the samples, at least count long
+   * @throws ArrayIndexOutOfBoundsException if the row part is not in the raster
+   */
+  public static void readRow(Raster raster, int x, int y, int count, int band, int samples[])
+  {
+    if (x < raster.getMinX() || y < raster.getMinY() || count < 0
+            || x + count > raster.getMinX() + raster.getWidth() || y >= raster.getMinY() + raster.getHeight())
+      throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+
+    SampleModel model = raster.getSampleModel();
+    DataBuffer buffer = raster.getDataBuffer();
+    int px = x - raster.getSampleModelTranslateX();
+    int py = y - raster.getSampleModelTranslateY();
+
+    if (buffer instanceof DataBufferByte && buffer.getNumBanks() == 1 && model instanceof ComponentSampleModel)
+    {
+      ComponentSampleModel component = (ComponentSampleModel) model;
+      byte data[] = ((DataBufferByte) buffer).getData();
+      int stride = component.getPixelStride();
+      int index = buffer.getOffset() + py * component.getScanlineStride() + px * stride + component.getBandOffsets()[band];
+      for (int i = 0; i < count; i += 1, index += stride)
+        samples[i] = data[index] & 0xFF;
+    }
+    else if (buffer instanceof DataBufferInt && buffer.getNumBanks() == 1 && model instanceof SinglePixelPackedSampleModel)
+    {
+      SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) model;
+      int data[] = ((DataBufferInt) buffer).getData();
+      int mask = packed.getBitMasks()[band];
+      int shift = packed.getBitOffsets()[band];
+      int index = buffer.getOffset() + py * packed.getScanlineStride() + px;
+      for (int i = 0; i < count; i += 1)
+        samples[i] = (data[index + i] & mask) >>> shift;
+    }
+    else
+    {
+      raster.getSamples(x, y, count, 1, band, samples);
+    }
+  }
+}
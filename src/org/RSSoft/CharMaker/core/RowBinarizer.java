@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.Raster;
+import java.util.stream.IntStream;
+
+/**
+ * This binarizer decides every row of a raster on its own, from the gray
+ * values of the row and its position. The rows of large rasters are
+ * decided in parallel.
+ * @author Richard
+ */
+public abstract class RowBinarizer extends Binarizer
+{
+  /**
+   * areas with more pixels are decided row parallel
+   */
+  private static final int PARALLEL_PIXELS = 1 << 16;
+
+  /**
+   * the rows decided by one task, sharing its buffers
+   */
+  private static final int CHUNK_ROWS = 32;
+
+  /**
+   * construct a row binarizer
+   * @param channel the band to read, LUMINANCE for the luminance
+   */
+  protected RowBinarizer(int channel)
+  {
+    super(channel);
+  }
+
+  @Override
+  protected long[][] decide(Raster raster, int x, int y, int width, int height)
+  {
+    long rows[][] = new long[height][];
+    int chunks = (height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+    IntStream range = IntStream.range(0, chunks);
+    if ((long) width * height >= PARALLEL_PIXELS)
+      range = range.parallel();
+    range.forEach((chunk) -> {
+      int gray[] = new int[width];
+      int samples[] = new int[width];
+      int end = Math.min(height, (chunk + 1) * CHUNK_ROWS);
+      for (int j = chunk * CHUNK_ROWS; j < end; j += 1)
+      {
+        this.readGray(raster, x, y + j, width, gray, samples);
+        long bits[] = new long[(width + 63) >>> 6];
+        this.decideRow(x, y + j, gray, width, bits);
+        rows[j] = bits;
+      }
+    });
+    return rows;
+  }
+
+  /**
+   * decides the pixels of a row
+   * @param x the column of the first pixel, in raster coordinates
+   * @param y the row, in raster coordinates
+   * @param gray the gray values
+   * @param width the number of pixels
+   * @param bits receives the set pixels, pixel i is bit i
+   */
+  protected abstract void decideRow(int x, int y, int gray[], int width, long bits[]);
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.Raster;
+import java.io.ObjectStreamException;
+import java.util.Arrays;
+
+/**
+ * This class represents a grid as runs of set pixels per row, which suits
+ * large bitmaps like logos or splash screens. The runs are passed to
+ * forEachSpan directly, single pixels are found by a binary search in the
+ * runs of their row.
+ * Like TrimmedDataGrid, the grid is expanded to a normal packed grid when it
+ * is changed the first time. The runs are never changed, so copies share them.
+ * @author Richard
+ */
+public class RunLengthDataGrid extends DataGrid
+{
+  static final long serialVersionUID = 228;
+
+  /**
+   * start and end of the runs of all rows, row after row: the runs of row y
+   * are runs[rows[y]] to runs[rows[y + 1] - 1], start and end alternating
+   */
+  private transient int runs[];
+  private transient int rows[];
+  private transient boolean expanded;
+
+  private RunLengthDataGrid(int xGrid, int yGrid, int runs[], int rows[])
+  {
+    super(xGrid, yGrid);
+    this.runs = runs;
+    this.rows = rows;
+    this.expanded = false;
+  }
+
+  /**
+   * collects the runs of a grid row by row
+   */
+  private static class Builder implements SpanConsumer
+  {
+    private int runs[];
+    private final int rows[];
+    private int count;
+    private int row;
+
+    Builder(int ySize)
+    {
+      this.runs = new int[16];
+      this.rows = new int[ySize + 1];
+      this.count = 0;
+      this.row = 0;
+    }
+
+    @Override
+    public void span(int y, int xStart, int xEnd)
+    {
+      endRows(y);
+      if (count + 2 > runs.length)
+        runs = Arrays.copyOf(runs, runs.length * 2);
+      runs[count] = xStart;
+      runs[count + 1] = xEnd;
+      count += 2;
+    }
+
+    /**
+     * ends all rows before y
+     */
+    void endRows(int y)
+    {
+      while (row < y)
+      {
+        row += 1;
+        rows[row] = count;
+      }
+    }
+
+    RunLengthDataGrid build(int xSize, int ySize)
+    {
+      endRows(ySize);
+      return new RunLengthDataGrid(xSize, ySize, Arrays.copyOf(runs, count), rows);
+    }
+  }
+
+  /**
+   * returns a run length encoded copy of grid
+   * @param grid the grid to encode, is not changed
+   * @return a new grid of the same size
+   */
+  public static RunLengthDataGrid encode(DataGrid grid)
+  {
+    Builder builder = new Builder(grid.getYSize());
+    grid.forEachSpan(builder);
+    return builder.build(grid.getXSize(), grid.getYSize());
+  }
+
+  /**
+   * converts from java.awt.image.Raster like DataGrid.convert (a pixel is
+   * set if the first band is over 127), reading the raster row by row.
+   * The raster is placed at the top left corner of the grid, pixels outside
+   * the grid are skipped.
+   * @param raster the raster to convert
+   * @param width the width of the grid, if 0 the width of the raster
+   * @param height the height of the grid, if 0 the height of the raster
+   * @return a new grid with the raster information
+   */
+  public static RunLengthDataGrid convert(Raster raster, int width, int height)
+  {
+    return RunLengthDataGrid.convert(raster, width, height, ThresholdBinarizer.DEFAULT);
+  }
+
+  /**
+   * converts from java.awt.image.Raster like convert(Raster, int, int),
+   * the pixels set are decided by binarizer
+   * @param raster the raster to convert
+   * @param width the width of the grid, if 0 the width of the raster
+   * @param height the height of the grid, if 0 the height of the raster
+   * @param binarizer decides which pixels are set
+   * @return a new grid with the raster information
+   */
+  public static RunLengthDataGrid convert(Raster raster, int width, int height, Binarizer binarizer)
+  {
+    int xSize = width == 0 ? raster.getWidth() : width;
+    int ySize = height == 0 ? raster.getHeight() : height;
+    int xEnd = Math.min(xSize, raster.getWidth());
+    int yEnd = Math.min(ySize, raster.getHeight());
+    Builder builder = new Builder(ySize);
+    if (xEnd > 0 && yEnd > 0)
+      binarizer.binarize(raster, raster.getMinX(), raster.getMinY(), xEnd, yEnd, builder);
+    return builder.build(xSize, ySize);
+  }
+
+  /**
+   * returns whether the grid still holds the runs only
+   * @return false if the grid has been expanded
+   */
+  public boolean isEncoded()
+  {
+    return !expanded;
+  }
+
+  /**
+   * returns the number of runs of set pixels
+   * @return the number of runs, 0 if the grid has been expanded
+   */
+  public int getRunCount()
+  {
+    return expanded ? 0 : runs.length / 2;
+  }
+
+  @Override
+  protected boolean isPacked()
+  {
+    return expanded;
+  }
+
+  @Override
+  protected void beforeChange()
+  {
+    if (expanded)
+      return;
+    expanded = true;
+    for (int y = 0; y < ySize; y += 1)
+    {
+      for (int i = rows[y]; i < rows[y + 1]; i += 2)
+      {
+        for (int x = runs[i]; x < runs[i + 1]; x += 1)
+          set(x, y, true);
+      }
+    }
+    runs = null;
+    rows = null;
+  }
+
+  @Override
+  public void changeGrid(int xGrid, int yGrid)
+  {
+    // the pixels are cleared anyway, so the runs are dropped without expanding them
+    if (!isImmutable())
+    {
+      expanded = true;
+      runs = null;
+      rows = null;
+    }
+    super.changeGrid(xGrid, yGrid);
+  }
+
+  @Override
+  protected boolean get(int x, int y)
+  {
+    if (expanded)
+      return super.get(x, y);
+    // find the last run starting at or before x
+    int low = rows[y] / 2;
+    int high = rows[y + 1] / 2 - 1;
+    while (low <= high)
+    {
+      int mid = (low + high) >>> 1;
+      if (runs[2 * mid] <= x)
+        low = mid + 1;
+      else
+        high = mid - 1;
+    }
+    return high >= rows[y] / 2 && x < runs[2 * high + 1];
+  }
+
+  @Override
+  public long getColumn(int x, int y, int count)
+  {
+    if (expanded)
+      return super.getColumn(x, y, count);
+    // empty rows are skipped without a search
+    long value = 0L;
+    for (int k = 0; k < count; k += 1)
+    {
+      if (rows[y + k] != rows[y + k + 1] && get(x, y + k))
+        value |= 1L << k;
+    }
+    return value;
+  }
+
+  @Override
+  public void forEachSpan(SpanConsumer consumer)
+  {
+    if (expanded)
+    {
+      super.forEachSpan(consumer);
+      return;
+    }
+    for (int y = 0; y < ySize; y += 1)
+    {
+      for (int i = rows[y]; i < rows[y + 1]; i += 2)
+        consumer.span(y, runs[i], runs[i + 1]);
+    }
+  }
+
+  @Override
+  public GridArea getBounds()
+  {
+    if (expanded)
+      return super.getBounds();
+    int xMin = xSize;
+    int xMax = 0;
+    int yMin = -1;
+    int yMax = -1;
+    for (int y = 0; y < ySize; y += 1)
+    {
+      if (rows[y] == rows[y + 1])
+        continue;
+      if (yMin < 0)
+        yMin = y;
+      yMax = y;
+      xMin = Math.min(xMin, runs[rows[y]]);
+      xMax = Math.max(xMax, runs[rows[y + 1] - 1]);
+    }
+    if (yMin < 0)
+      return new GridArea(0, 0, 0, 0);
+    return new GridArea(xMin, yMin, xMax - xMin, yMax - yMin + 1);
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return expanded ? super.isEmpty() : runs.length == 0;
+  }
+
+  /**
+   * copies the grid, an encoded grid shares its runs with the copy
+   * @return a new object containing the same data
+   */
+  @Override
+  public DataGrid copy()
+  {
+    if (expanded)
+      return super.copy();
+    return new RunLengthDataGrid(xSize, ySize, runs, rows);
+  }
+
+  /**
+   * an encoded grid is serialized as a plain DataGrid
+   * @return a DataGrid with the same pixels
+   * @throws ObjectStreamException never
+   */
+  private Object writeReplace() throws ObjectStreamException
+  {
+    return super.copy();
+  }
+}
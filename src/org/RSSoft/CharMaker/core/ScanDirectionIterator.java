@@ -153,6 +153,15 @@ public class ScanDirectionIterator {
         }
     }
     
+    /**
+     * returns whether the outer loop iterates over the rows (y) and the inner
+     * loop over the columns (x)
+     * @return true if rows are scanned first
+     */
+    public boolean isHorizontalOverVertical() {
+        return horizontalOverVertical == FontSettings.SCANDIRECTION_HORIZONTAL_OVER_VERTICAL;
+    }
+    
     public int getX() {
         return this.x;
     }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+/**
+ * This binarizer sets a pixel if its gray value is over a threshold.
+ * DEFAULT reads the first band with the threshold 127, the way rasters
+ * have always been converted.
+ * @author Richard
+ */
+public class ThresholdBinarizer extends RowBinarizer
+{
+  /**
+   * the first band, set if over 127
+   */
+  public static final ThresholdBinarizer DEFAULT = new ThresholdBinarizer(0, 127);
+
+  private final int threshold;
+
+  /**
+   * construct a threshold binarizer
+   * @param channel the band to read, LUMINANCE for the luminance
+   * @param threshold a pixel is set if its gray value (0 to 255) is over it
+   */
+  public ThresholdBinarizer(int channel, int threshold)
+  {
+    super(channel);
+    this.threshold = threshold;
+  }
+
+  /**
+   * returns the threshold
+   * @return the gray value a pixel must exceed to be set
+   */
+  public int getThreshold()
+  {
+    return this.threshold;
+  }
+
+  @Override
+  protected void decideRow(int x, int y, int gray[], int width, long bits[])
+  {
+    for (int i = 0; i < width; i += 1)
+    {
+      if (gray[i] > threshold)
+        bits[i >>> 6] |= 1L << i;
+    }
+  }
+}
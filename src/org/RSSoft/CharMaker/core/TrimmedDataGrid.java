@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core;
+
+import java.awt.image.Raster;
+import java.io.ObjectStreamException;
+import java.util.logging.Level;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * This class represents a character cell of which only the bounding box of
+ * the set pixels is stored, together with its offset (the bearing) inside
+ * the cell. Everything outside the box reads as unset.
+ * Reading, copying and comparing work on the box only. The first change
+ * expands the grid to a normal packed grid of the whole cell.
+ * @author Richard
+ */
+public class TrimmedDataGrid extends DataGrid
+{
+  static final long serialVersionUID = 227;
+
+  /**
+   * the pixels of the bounding box, null if no pixel is set or the grid is expanded
+   */
+  private transient DataGrid box;
+  private transient int left;
+  private transient int top;
+  private transient boolean expanded;
+
+  /**
+   * construct a new cell with the pixels of box placed at left, top.
+   * Empty rows and columns at the border of box are not stored.
+   * @param xGrid the width of the cell
+   * @param yGrid the height of the cell
+   * @param left the offset of box in x direction, box has to fit into the cell
+   * @param top the offset of box in y direction, box has to fit into the cell
+   * @param box the pixels, is not changed. An immutable box without empty
+   *        rows and columns at its border is used as is.
+   */
+  public TrimmedDataGrid(int xGrid, int yGrid, int left, int top, DataGrid box)
+  {
+    super(xGrid, yGrid);
+    GridArea bounds = box.getBounds();
+    if (bounds.xEnd == 0)
+    {
+      this.box = null;
+      this.left = 0;
+      this.top = 0;
+    }
+    else if (box.hasFixedPixels() && bounds.xEnd == box.xSize && bounds.yEnd == box.ySize)
+    {
+      // an immutable box without empty border can be shared
+      this.box = box;
+      this.left = left;
+      this.top = top;
+    }
+    else
+    {
+      this.box = new DataGrid(1, 1);
+      try {
+        box.copy(this.box, bounds, false);
+      } catch (Exception ex) {
+        RSLogger.getLogger().log(Level.SEVERE, null, ex);
+      }
+      this.left = left + bounds.xOffset;
+      this.top = top + bounds.yOffset;
+    }
+    this.expanded = false;
+  }
+
+  /**
+   * copy constructor, the box is shared as it is never changed
+   */
+  private TrimmedDataGrid(TrimmedDataGrid grid)
+  {
+    super(grid.xSize, grid.ySize);
+    this.box = grid.box;
+    this.left = grid.left;
+    this.top = grid.top;
+    this.expanded = false;
+  }
+
+  /**
+   * returns a trimmed copy of grid
+   * @param grid the grid to trim, is not changed
+   * @return a new grid of the same size holding only the bounding box
+   */
+  public static TrimmedDataGrid trim(DataGrid grid)
+  {
+    return new TrimmedDataGrid(grid.getXSize(), grid.getYSize(), 0, 0, grid);
+  }
+
+  /**
+   * converts from java.awt.image.Raster like DataGrid.convert and places
+   * the raster at xOffset, yOffset inside a cell of width, height.
+   * Pixels outside the cell are skipped.
+   * @param raster the raster holding the glyph
+   * @param xOffset the offset of the raster in the cell in x direction, may be negative
+   * @param yOffset the offset of the raster in the cell in y direction, may be negative
+   * @param width the width of the cell
+   * @param height the height of the cell
+   * @return a new grid holding only the bounding box of the set pixels
+   */
+  public static TrimmedDataGrid convert(Raster raster, int xOffset, int yOffset, int width, int height)
+  {
+    return TrimmedDataGrid.convert(raster, xOffset, yOffset, width, height, ThresholdBinarizer.DEFAULT);
+  }
+
+  /**
+   * converts from java.awt.image.Raster like convert(Raster, int, int, int, int),
+   * the pixels set are decided by binarizer
+   * @param raster the raster holding the glyph
+   * @param xOffset the offset of the raster in the cell in x direction, may be negative
+   * @param yOffset the offset of the raster in the cell in y direction, may be negative
+   * @param width the width of the cell
+   * @param height the height of the cell
+   * @param binarizer decides which pixels are set
+   * @return a new grid holding only the bounding box of the set pixels
+   */
+  public static TrimmedDataGrid convert(Raster raster, int xOffset, int yOffset, int width, int height, Binarizer binarizer)
+  {
+    int xStart = Math.max(0, -xOffset);
+    int yStart = Math.max(0, -yOffset);
+    int xSize = Math.min(raster.getWidth(), width - xOffset) - xStart;
+    int ySize = Math.min(raster.getHeight(), height - yOffset) - yStart;
+    if (xSize <= 0 || ySize <= 0)
+      return new TrimmedDataGrid(width, height, 0, 0, DataGrid.empty(1, 1));
+
+    DataGrid pixels = new DataGrid(xSize, ySize);
+    pixels.setBinarized(binarizer, raster, raster.getMinX() + xStart, raster.getMinY() + yStart, xSize, ySize, 0, 0);
+    return new TrimmedDataGrid(width, height, xOffset + xStart, yOffset + yStart, pixels);
+  }
+
+  /**
+   * returns whether the grid still holds only the bounding box
+   * @return false if the grid has been expanded to the whole cell
+   */
+  public boolean isTrimmed()
+  {
+    return !expanded;
+  }
+
+  @Override
+  protected boolean isPacked()
+  {
+    return expanded;
+  }
+
+  @Override
+  protected void beforeChange()
+  {
+    if (expanded)
+      return;
+    expanded = true;
+    if (box != null)
+    {
+      DataGrid pixels = box;
+      box = null;
+      try {
+        paste(pixels, left, top);
+      } catch (Exception ex) {
+        RSLogger.getLogger().log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+
+  @Override
+  public void changeGrid(int xGrid, int yGrid)
+  {
+    // the pixels are cleared anyway, so the box is dropped without expanding it
+    if (!isImmutable())
+    {
+      expanded = true;
+      box = null;
+    }
+    super.changeGrid(xGrid, yGrid);
+  }
+
+  @Override
+  protected boolean get(int x, int y)
+  {
+    if (expanded)
+      return super.get(x, y);
+    if (box == null)
+      return false;
+    x -= left;
+    y -= top;
+    if (x < 0 || y < 0 || x >= box.xSize || y >= box.ySize)
+      return false;
+    return box.get(x, y);
+  }
+
+  @Override
+  public long getColumn(int x, int y, int count)
+  {
+    if (expanded)
+      return super.getColumn(x, y, count);
+    if (box == null || x < left || x >= left + box.xSize)
+      return 0L;
+    int from = Math.max(y, top);
+    int to = Math.min(y + count, top + box.ySize);
+    if (from >= to)
+      return 0L;
+    return box.getColumn(x - left, from - top, to - from) << (from - y);
+  }
+
+  @Override
+  public GridArea getBounds()
+  {
+    if (expanded)
+      return super.getBounds();
+    if (box == null)
+      return new GridArea(0, 0, 0, 0);
+    return new GridArea(left, top, box.xSize, box.ySize);
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return expanded ? super.isEmpty() : box == null;
+  }
+
+  /**
+   * copies the grid, a trimmed grid shares its box with the copy
+   * @return a new object containing the same data
+   */
+  @Override
+  public DataGrid copy()
+  {
+    if (expanded)
+      return super.copy();
+    return new TrimmedDataGrid(this);
+  }
+
+  /**
+   * a trimmed grid is serialized as a plain DataGrid of the whole cell
+   * @return a DataGrid with the pixels of the cell
+   * @throws ObjectStreamException never
+   */
+  private Object writeReplace() throws ObjectStreamException
+  {
+    return super.copy();
+  }
+}
@@ -21,7 +21,7 @@ package org.RSSoft.CharMaker.core.character;
 
 /**
  * a class to get a description of every ascii value from 0x20 (space)
- * to 0x7E (tilde)
+ * to 0x7E (tilde), other printable code points are described by their value
  * @author Richard
  */
 public class Char2Description {
@@ -32,11 +32,12 @@ public class Char2Description {
    * returns a string description of the character c, used to make 
    * C variable names valid (no special characters show up in declaration),
    * letters are described as is ('U' becomes "U"), but special characters
-   * and numbers get a description ('#' becomes "hash")
-   * @param c the character to get the description
+   * and numbers get a description ('#' becomes "hash"), code points above
+   * ascii are described by their value (0x416 becomes "U0416")
+   * @param c the unicode code point to get the description
    * @return a string description / identifier of c
    */
-  public static String getDescription(char c)
+  public static String getDescription(int c)
   {
     String description;
     switch (c) {
@@ -135,9 +136,19 @@ public class Char2Description {
       case 0x7C: description = "vertical_bar"; break;
       case 0x7D: description = "bracket_close"; break;
       case 0x7E: description = "tilde"; break;      
-      default: description = ""; break;
+      default: description = c > 0x7F ? hex(c) : ""; break;
     }
     return description;
   }
   
+  /**
+   * returns "U" and the code point as 4 or more upper case hex digits,
+   * like String.format("U%04X", c) but without parsing a format
+   */
+  private static String hex(int c)
+  {
+    String digits = Integer.toHexString(c).toUpperCase();
+    return digits.length() >= 4 ? "U" + digits : "U0000".substring(0, 5 - digits.length()) + digits;
+  }
+  
 }
@@ -19,6 +19,10 @@
  */
 package org.RSSoft.CharMaker.core.character;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Observable;
 import org.RSSoft.CharMaker.core.DataGrid;
@@ -26,47 +30,164 @@ import org.RSSoft.CharMaker.core.DataGrid;
 /**
  * This class describes a pixel character.
  * It contains a DataGrid, the description string, and the actual character
+ * as unicode code point.
+ * The grid is immutable and shared with all characters of the same glyph
+ * store having the same pixels, setting a new grid replaces the reference.
+ * A character read from a file loads its grid and description from
+ * a GlyphSource when they are used the first time.
  * @author Richard
  */
 public class CharacterDescriptor extends Observable implements Serializable
 {
   static final long serialVersionUID = 125;
   
+  /**
+   * the former char field "character" is still written (code points above
+   * 0xFFFF as '?'), so older versions can read the file; "codePoint" holds
+   * the actual value
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("characterGrid", DataGrid.class),
+    new ObjectStreamField("descriptor", String.class),
+    new ObjectStreamField("character", char.class),
+    new ObjectStreamField("codePoint", int.class)
+  };
+  
   private DataGrid characterGrid;
   private String descriptor;
-  private char character;
+  private int codePoint;
+  private transient GlyphStore store;
+  private transient long revision;
+  private transient GlyphSource source;
+  private transient int sourceIndex;
   
   /**
    * construct a new Character Descriptor with a valid grid, a description
    * and the actual character
    * @param grid the grid to use
-   * @param description the description of the character c
-   * @param c the actual character
+   * @param description the description of the character
+   * @param codePoint the actual character as unicode code point
+   */
+  public CharacterDescriptor(DataGrid grid, String description, int codePoint)
+  {
+    this(new GlyphStore(), grid, description, codePoint);
+  }
+  
+  /**
+   * construct a new Character Descriptor with a valid grid, a description
+   * and the actual character
+   * @param store the store the grid is interned in
+   * @param grid the grid to use, is not changed
+   * @param description the description of the character
+   * @param codePoint the actual character as unicode code point
    */
-  public CharacterDescriptor(DataGrid grid, String description, char c)
+  public CharacterDescriptor(GlyphStore store, DataGrid grid, String description, int codePoint)
   {
-    this.characterGrid = grid.copy();
+    this.store = store;
+    this.characterGrid = store.intern(grid);
     this.descriptor = description;
-    this.character = c;
+    this.codePoint = codePoint;
+  }
+  
+  /**
+   * construct a character whose grid and description are loaded from
+   * source when they are used the first time
+   * @param store the store the grid is interned in when it is loaded
+   * @param source the source of grid and description
+   * @param sourceIndex the number of the character in source
+   * @param codePoint the actual character as unicode code point
+   */
+  CharacterDescriptor(GlyphStore store, GlyphSource source, int sourceIndex, int codePoint)
+  {
+    this.store = store;
+    this.source = source;
+    this.sourceIndex = sourceIndex;
+    this.codePoint = codePoint;
+  }
+  
+  /**
+   * returns a detached copy of the character for writing it on another
+   * thread. The copy shares the immutable grid, a character not loaded yet
+   * is read from its source by the copy without interning the grid.
+   * @return the copy, not in any glyph store
+   */
+  CharacterDescriptor snapshot()
+  {
+    CharacterDescriptor copy = new CharacterDescriptor(null, source, sourceIndex, codePoint);
+    copy.characterGrid = this.characterGrid;
+    copy.descriptor = this.descriptor;
+    copy.revision = this.revision;
+    copy.checkLoaded();
+    return copy;
   }
   
   /**
-   * returns the grid of the character
+   * drops the source once grid and description are loaded
+   */
+  private void checkLoaded()
+  {
+    if (this.characterGrid != null && this.descriptor != null)
+      this.source = null;
+  }
+  
+  /**
+   * moves the grid into another glyph store, used after deserializing
+   * @param store the new store
+   */
+  void setStore(GlyphStore store)
+  {
+    DataGrid old = this.characterGrid;
+    if (old != null) {
+      this.characterGrid = store.intern(old);
+      if (this.store != null)
+        this.store.release(old);
+    }
+    this.store = store;
+  }
+  
+  /**
+   * returns the revision of the character set this character was changed
+   * last, see CharacterSet.getRevision()
+   * @return the revision, 0 if not changed since the set was constructed or loaded
+   */
+  public long getRevision()
+  {
+    return this.revision;
+  }
+  
+  /**
+   * sets the revision, called by the character set on each change
+   * @param revision the new revision
+   */
+  void setRevision(long revision)
+  {
+    this.revision = revision;
+  }
+  
+  /**
+   * returns the grid of the character. The grid is immutable, copy it
+   * to change pixels and set the copy with setGrid(DataGrid)
    * @return the DataGrid grid
    */
   public DataGrid getGrid()
   {
+    if (characterGrid == null && source != null) {
+      DataGrid grid = source.getGrid(sourceIndex);
+      characterGrid = store == null ? grid : store.intern(grid);
+      checkLoaded();
+    }
     return characterGrid;
   }
   
   /**
    * sets a new grid to the existing character
-   * @param grid a new grid to replace the old one
+   * @param grid a new grid to replace the old one, is not changed
    */
   public void setGrid(DataGrid grid)
   {
-    grid.copyTo(this.characterGrid);
-    //this.characterGrid.copyTo(grid);
+    DataGrid old = this.getGrid();
+    this.characterGrid = store.intern(grid);
+    store.release(old);
     this.setChanged();
     this.notifyObservers();
   }
@@ -77,6 +198,8 @@ public class CharacterDescriptor extends Observable implements Serializable
    */
   public int getWidth()
   {
+    if (this.characterGrid == null && this.source != null)
+      return this.source.getWidth(sourceIndex);
     return this.characterGrid.getXSize();
   }
   
@@ -86,7 +209,9 @@ public class CharacterDescriptor extends Observable implements Serializable
    */
   public void setWidth(int width)
   {
-    this.characterGrid = new DataGrid(width, this.characterGrid.getYSize());
+    DataGrid old = this.getGrid();
+    this.characterGrid = store.intern(DataGrid.empty(width, old.getYSize()));
+    store.release(old);
     this.setChanged();
     this.notifyObservers();
   }
@@ -97,6 +222,10 @@ public class CharacterDescriptor extends Observable implements Serializable
    */
   public String getDescriptor()
   {
+    if (descriptor == null && source != null) {
+      descriptor = source.getDescription(sourceIndex);
+      checkLoaded();
+    }
     return descriptor;
   }
   
@@ -107,27 +236,51 @@ public class CharacterDescriptor extends Observable implements Serializable
   public void setDescription(String description)
   {
     this.descriptor = description;
+    this.checkLoaded();
     this.setChanged();
     this.notifyObservers();
   }
   
   /**
    * returns the character
-   * @return the character of this character descriptor
+   * @return the unicode code point of this character descriptor
    */
-  public char getCharacter()
+  public int getCodePoint()
   {
-    return this.character;
+    return this.codePoint;
   }
   
   /**
-   * set a new character to the character descriptor
-   * @param c the new character value
+   * set a new character to the character descriptor. The observers are
+   * notified with the former code point.
+   * @param codePoint the new unicode code point
    */
-  public void setCharacter(char c)
+  public void setCodePoint(int codePoint)
   {
-    this.character = c;
+    Integer old = this.codePoint;
+    this.codePoint = codePoint;
     this.setChanged();
-    this.notifyObservers();
+    this.notifyObservers(old);
+  }
+  
+  private void writeObject(ObjectOutputStream out) throws IOException
+  {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("characterGrid", this.getGrid());
+    fields.put("descriptor", this.getDescriptor());
+    fields.put("character", Character.isBmpCodePoint(codePoint) ? (char) codePoint : '?');
+    fields.put("codePoint", this.codePoint);
+    out.writeFields();
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    ObjectInputStream.GetField fields = in.readFields();
+    this.characterGrid = (DataGrid) fields.get("characterGrid", null);
+    this.descriptor = (String) fields.get("descriptor", null);
+    if (fields.defaulted("codePoint"))
+      this.codePoint = fields.get("character", '\0');
+    else
+      this.codePoint = fields.get("codePoint", 0);
   }
 }
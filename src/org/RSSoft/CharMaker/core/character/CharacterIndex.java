@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.util.Arrays;
+
+/**
+ * This class maps unicode code points to their position in the character
+ * list of a CharacterSet. The code points are split into pages of 256: the
+ * upper bits select a page, the lowest 8 bits the slot in the page. A page
+ * is an int array of positions and is only allocated when a code point of
+ * it is added, so a lookup costs two array accesses and the code points can
+ * be walked in ascending order page by page.
+ * @author Richard
+ */
+public class CharacterIndex
+{
+  private static final int PAGE_BITS = 8;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int SLOT_MASK = PAGE_SIZE - 1;
+  private static final int FREE = -1;
+
+  private int pages[][];
+  private int pageCounts[];
+  private int size;
+
+  /**
+   * construct a new empty index
+   */
+  public CharacterIndex()
+  {
+    this.pages = new int[1][];
+    this.pageCounts = new int[1];
+    this.size = 0;
+  }
+
+  /**
+   * returns the position of a code point
+   * @param codePoint the code point
+   * @return the position, -1 if the code point is not in the index
+   */
+  public int get(int codePoint)
+  {
+    int page = codePoint >>> PAGE_BITS;
+    if (page >= pages.length || pages[page] == null)
+      return -1;
+    return pages[page][codePoint & SLOT_MASK];
+  }
+
+  /**
+   * returns whether the index holds a code point
+   * @param codePoint the code point
+   * @return true if the code point is in the index
+   */
+  public boolean contains(int codePoint)
+  {
+    return get(codePoint) != FREE;
+  }
+
+  /**
+   * adds a code point or changes its position
+   * @param codePoint the code point, 0 to Character.MAX_CODE_POINT
+   * @param position the position of the character, not negative
+   */
+  public void put(int codePoint, int position)
+  {
+    int page = codePoint >>> PAGE_BITS;
+    if (page >= pages.length)
+    {
+      pages = Arrays.copyOf(pages, page + 1);
+      pageCounts = Arrays.copyOf(pageCounts, page + 1);
+    }
+    if (pages[page] == null)
+    {
+      pages[page] = new int[PAGE_SIZE];
+      Arrays.fill(pages[page], FREE);
+    }
+    int slot = codePoint & SLOT_MASK;
+    if (pages[page][slot] == FREE)
+    {
+      pageCounts[page] += 1;
+      size += 1;
+    }
+    pages[page][slot] = position;
+  }
+
+  /**
+   * removes a code point, a page without code points is released
+   * @param codePoint the code point
+   * @return the position the code point had, -1 if it was not in the index
+   */
+  public int remove(int codePoint)
+  {
+    int position = get(codePoint);
+    if (position == FREE)
+      return FREE;
+    int page = codePoint >>> PAGE_BITS;
+    pages[page][codePoint & SLOT_MASK] = FREE;
+    pageCounts[page] -= 1;
+    size -= 1;
+    if (pageCounts[page] == 0)
+      pages[page] = null;
+    return position;
+  }
+
+  /**
+   * returns the smallest code point in the index not below codePoint,
+   * empty pages are skipped at once
+   * @param codePoint the code point to start at
+   * @return the code point, -1 if there is none
+   */
+  public int next(int codePoint)
+  {
+    if (codePoint < 0)
+      codePoint = 0;
+    for (int page = codePoint >>> PAGE_BITS; page < pages.length; page += 1)
+    {
+      if (pageCounts[page] != 0)
+      {
+        int entries[] = pages[page];
+        for (int slot = codePoint & SLOT_MASK; slot < PAGE_SIZE; slot += 1)
+        {
+          if (entries[slot] != FREE)
+            return (page << PAGE_BITS) | slot;
+        }
+      }
+      codePoint = 0;
+    }
+    return -1;
+  }
+
+  /**
+   * removes all code points
+   */
+  public void clear()
+  {
+    this.pages = new int[1][];
+    this.pageCounts = new int[1];
+    this.size = 0;
+  }
+
+  /**
+   * returns the number of code points in the index
+   * @return the number of code points
+   */
+  public int size()
+  {
+    return size;
+  }
+}
@@ -22,11 +22,16 @@ package org.RSSoft.CharMaker.core.character;
 import java.awt.image.Raster;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import javax.swing.AbstractListModel;
+import org.RSSoft.CharMaker.core.Binarizer;
 import org.RSSoft.CharMaker.core.DataGrid;
+import org.RSSoft.CharMaker.core.RunLengthDataGrid;
+import org.RSSoft.CharMaker.core.ThresholdBinarizer;
 import org.RSSoft.CharMaker.util.RSLogger;
 
 /**
@@ -44,6 +49,37 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
   private boolean isVariableWidth;
   private String fontName;
   private boolean changed;
+  private transient GlyphStore glyphStore;
+  private transient CharacterIndex index;
+  
+  /**
+   * the outlines the characters are rendered from, null if the set has none.
+   * The characters changed to another grid than the rendered outline are
+   * kept as overrides of outlineSize and outlineThreshold.
+   */
+  private transient GlyphOutlines outlines;
+  private transient int outlineSize;
+  private transient int outlineThreshold;
+  
+  /**
+   * every change of a character increments the revision and stamps the
+   * character with it. changes holds each changed character once, under its
+   * latest revision, removals the code points of removed characters.
+   */
+  private transient long revision;
+  private transient long savedRevision;
+  private transient TreeMap<Long, CharacterDescriptor> changes;
+  private transient TreeMap<Long, Integer> removals;
+  
+  /**
+   * while updateDepth is above 0, list events and log lines are held back:
+   * the changed indices are collected from updateFrom to updateTo and fired
+   * as one event by commitUpdate()
+   */
+  private transient int updateDepth;
+  private transient int updateFrom;
+  private transient int updateTo;
+  private transient int updateAdded;
   
   /**
    * construct a new empty list
@@ -66,6 +102,9 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
     this.fontName = fontName;
     
     this.changed = false;
+    this.glyphStore = new GlyphStore();
+    this.index = new CharacterIndex();
+    this.resetRevisions();
     
     RSLogger.getLogger().log(Level.INFO, String.format("new Character set: %s, height: %d, width: %d", fontName, height, width));
   }
@@ -77,6 +116,18 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
   public void setSaved()
   {
     this.changed = false;
+    this.savedRevision = this.revision;
+  }
+  
+  /**
+   * marks the set as saved up to a revision, used when a snapshot of the
+   * set was written while it was changed further.
+   * @param revision the revision of the snapshot written
+   */
+  public void setSaved(long revision)
+  {
+    this.changed = this.revision != revision;
+    this.savedRevision = revision;
   }
   
   /**
@@ -88,6 +139,177 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
     return this.changed;
   }
   
+  /**
+   * starts a bulk update: until the matching commitUpdate(), adding, removing
+   * and changing characters fires no list events and writes no log lines.
+   * Calls may be nested, only the outermost commitUpdate() fires.
+   */
+  public void beginUpdate()
+  {
+    if (this.updateDepth == 0) {
+      this.updateFrom = Integer.MAX_VALUE;
+      this.updateTo = -1;
+      this.updateAdded = 0;
+    }
+    this.updateDepth += 1;
+  }
+  
+  /**
+   * ends a bulk update started by beginUpdate(). The outermost call fires one
+   * list event covering all changed indices.
+   */
+  public void commitUpdate()
+  {
+    if (this.updateDepth == 0) {
+      return;
+    }
+    this.updateDepth -= 1;
+    if (this.updateDepth == 0 && this.updateTo >= 0) {
+      if (this.updateAdded > 0) {
+        RSLogger.getLogger().log(Level.INFO, String.format("%d new Characters", this.updateAdded));
+      }
+      this.fireContentsChanged(this, this.updateFrom, Math.max(this.updateTo, this.characters.size()-1));
+    }
+  }
+  
+  /**
+   * adds all characters with one list event, see beginUpdate()
+   * @param newCharacters the characters to add, their code point, description and grid are used
+   * @throws Exception in case a character value is already in the array, the
+   * characters before it are added
+   */
+  public void addAll(Collection<CharacterDescriptor> newCharacters) throws Exception
+  {
+    this.beginUpdate();
+    try {
+      for (CharacterDescriptor c : newCharacters) {
+        this.addCharacter(c.getCodePoint(), c.getDescriptor(), c.getGrid());
+      }
+    } finally {
+      this.commitUpdate();
+    }
+  }
+  
+  /**
+   * adds characters with one list event, see beginUpdate(). Grids that are
+   * null and code points already in the set are skipped.
+   * @param codePoints the unicode code points
+   * @param grids the grids of the code points
+   * @param count the number of characters
+   * @return the number of characters skipped
+   */
+  public int addCharacters(int codePoints[], DataGrid grids[], int count)
+  {
+    int skipped = 0;
+    this.beginUpdate();
+    try {
+      for (int i = 0; i < count; i += 1) {
+        if (grids[i] == null) {
+          skipped += 1;
+          continue;
+        }
+        try {
+          this.addCharacter(codePoints[i], grids[i]);
+        } catch (Exception ex) {
+          RSLogger.getLogger().log(Level.WARNING, null, ex);
+          skipped += 1;
+        }
+      }
+    } finally {
+      this.commitUpdate();
+    }
+    return skipped;
+  }
+  
+  /**
+   * fires a list event, or collects it during a bulk update
+   */
+  private void fireChanged(int index0, int index1)
+  {
+    if (this.updateDepth > 0) {
+      this.updateFrom = Math.max(0, Math.min(this.updateFrom, index0));
+      this.updateTo = Math.max(this.updateTo, index1);
+    } else {
+      this.fireContentsChanged(this, index0, index1);
+    }
+  }
+  
+  /**
+   * returns the current revision, it is incremented on every change of a
+   * character, every added and every removed character
+   * @return the revision
+   */
+  public long getRevision()
+  {
+    return this.revision;
+  }
+  
+  /**
+   * returns the characters changed or added after the given revision, in
+   * the order of their last change. The cost depends on the number of
+   * changed characters only.
+   * @param revision a revision returned by getRevision()
+   * @return the changed characters
+   */
+  public ArrayList<CharacterDescriptor> getCharactersChangedSince(long revision)
+  {
+    return new ArrayList<>(this.changes.tailMap(revision, false).values());
+  }
+  
+  /**
+   * returns the code points of the characters removed after the given
+   * revision. A code point may have been added again since, then the
+   * character is also returned by getCharactersChangedSince(long).
+   * @param revision a revision returned by getRevision()
+   * @return the removed code points
+   */
+  public ArrayList<Integer> getCodePointsRemovedSince(long revision)
+  {
+    return new ArrayList<>(this.removals.tailMap(revision, false).values());
+  }
+  
+  /**
+   * returns whether a character was changed since the set was saved last
+   * @param c a character of this set
+   * @return true if c was changed or added after the last call to setSaved()
+   */
+  public boolean isDirty(CharacterDescriptor c)
+  {
+    return c.getRevision() > this.savedRevision;
+  }
+  
+  /**
+   * returns the characters changed since the set was saved last
+   * @return the changed characters
+   */
+  public ArrayList<CharacterDescriptor> getDirtyCharacters()
+  {
+    return this.getCharactersChangedSince(this.savedRevision);
+  }
+  
+  /**
+   * stamps a character with a new revision
+   * @param c the changed character
+   */
+  private void touch(CharacterDescriptor c)
+  {
+    if (this.changes.get(c.getRevision()) == c) {
+      this.changes.remove(c.getRevision());
+    }
+    this.revision += 1;
+    c.setRevision(this.revision);
+    this.changes.put(this.revision, c);
+    this.changed = true;
+  }
+  
+  private void resetRevisions()
+  {
+    this.revision = 0;
+    this.savedRevision = 0;
+    this.changes = new TreeMap<>();
+    this.removals = new TreeMap<>();
+  }
+  
   /**
    * returns the character descriptor at the index
    * @param index the index of the character
@@ -105,18 +327,39 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
    * searches for the character c in the character array.
    * There is always either no match or only one, because adding more than one
    * character descriptor with the same character value is prohibited
-   * @param c the character to search for
+   * @param codePoint the unicode code point to search for
    * @return a character descriptor if search was successful, or null in case
    * the character was not found
    */
-  public CharacterDescriptor getCharacter(char c)
+  public CharacterDescriptor getCharacter(int codePoint)
   {
-    for (CharacterDescriptor ch: characters)
-    {
-      if (ch.getCharacter() == c)
-        return ch;
+    int position = this.index.get(codePoint);
+    return position == -1 ? null : characters.get(position);
+  }
+  
+  /**
+   * returns the position of a character in the character array
+   * @param codePoint the unicode code point to search for
+   * @return the index of the character, -1 if the character was not found
+   */
+  public int indexOf(int codePoint)
+  {
+    return this.index.get(codePoint);
+  }
+  
+  /**
+   * returns the characters of a code point range in ascending order
+   * @param from the first code point of the range
+   * @param to the code point after the range
+   * @return the characters within the range
+   */
+  public ArrayList<CharacterDescriptor> getCharacters(int from, int to)
+  {
+    ArrayList<CharacterDescriptor> range = new ArrayList<>();
+    for (int c = this.index.next(from); c != -1 && c < to; c = this.index.next(c + 1)) {
+      range.add(this.characters.get(this.index.get(c)));
     }
-    return null;
+    return range;
   }
   
   /**
@@ -165,37 +408,41 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
   
   /**
    * adds a character to the array
-   * @param character the character value
+   * @param character the unicode code point of the character
    * @param raster the pixel information of the character
    * @throws Exception in case the character value is already in the array
    */
-  public void addCharacter(char character, Raster raster) throws Exception
+  public void addCharacter(int character, Raster raster) throws Exception
   {
-    if (this.fontWidth == 0)
-    {
-      this.addCharacter(character, Char2Description.getDescription(character), DataGrid.convert(raster, fontHeight));
-    }
-    else
-    {
-      this.addCharacter(character, Char2Description.getDescription(character), DataGrid.convert(raster, fontHeight, fontWidth));
-    }
-    
-    this.fireContentsChanged(this, this.characters.size()-1, this.characters.size());
-    RSLogger.getLogger().log(Level.INFO, String.format("new Character: %c", character));
+    // images like logos are kept as runs of set pixels, a width of 0 takes the width of the raster
+    this.addCharacter(character, raster, ThresholdBinarizer.DEFAULT);
+  }
+  
+  /**
+   * adds a character to the array, the pixels set are decided by binarizer
+   * @param character the unicode code point of the character
+   * @param raster the pixel information of the character
+   * @param binarizer decides which pixels of the raster are set
+   * @throws Exception in case the character value is already in the array
+   */
+  public void addCharacter(int character, Raster raster, Binarizer binarizer) throws Exception
+  {
+    // images like logos are kept as runs of set pixels, a width of 0 takes the width of the raster
+    this.addCharacter(character, Char2Description.getDescription(character), RunLengthDataGrid.convert(raster, fontWidth, fontHeight, binarizer));
   }
   
   /**
    * adds a new character with an empty grid to the array
-   * @param character the character value
+   * @param character the unicode code point of the character
    * @param description a description of the character
    * @throws Exception in case the font width is variable, so no information
    * of the width is given, or character is already in the array
    */
-  public void addCharacter(char character, String description) throws Exception
+  public void addCharacter(int character, String description) throws Exception
   {
     if (this.fontWidth != 0)
     {
-      this.addCharacter(character, description, new DataGrid(this.fontWidth, this.fontHeight));
+      this.addCharacter(character, description, DataGrid.empty(this.fontWidth, this.fontHeight));
     }
     else
     {
@@ -205,35 +452,35 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
   
   /**
    * adds a new character with an empty grid to the array
-   * @param character the character value
+   * @param character the unicode code point of the character
    * @param description a description of the character
    * @param width the width of the new character
    * @throws Exception in case the character value is already in the array
    */
-  public void addCharacter(char character, String description, int width) throws Exception
+  public void addCharacter(int character, String description, int width) throws Exception
   {
-    this.addCharacter(character, description, new DataGrid(width, this.fontHeight));
+    this.addCharacter(character, description, DataGrid.empty(width, this.fontHeight));
   }
   
   /**
    * add a character to the array
-   * @param character the character value
+   * @param character the unicode code point of the character
    * @param grid the pixel information of the character
    * @throws Exception in case the character value is already in the array
    */
-  public void addCharacter(char character, DataGrid grid) throws Exception
+  public void addCharacter(int character, DataGrid grid) throws Exception
   {
     this.addCharacter(character, Char2Description.getDescription(character), grid);
   }
   
   /**
    * add a character to the array
-   * @param character the character value
+   * @param character the unicode code point of the character
    * @param description a description of the character
    * @param grid the pixel information of the character
    * @throws Exception in case the character value is already in the array
    */
-  public void addCharacter(char character, String description, DataGrid grid) throws Exception
+  public void addCharacter(int character, String description, DataGrid grid) throws Exception
   {
     if (characters.isEmpty()) {
       if (this.fontWidth == 0) {
@@ -246,15 +493,24 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
         this.isVariableWidth = true;
       }
     }
-    if (this.getCharacterPosition(character) != -1) {
+    if (character < 0 || character > Character.MAX_CODE_POINT) {
+      throw new Exception(String.format("Character 0x%X is no valid code point", character));
+    }
+    if (this.index.contains(character)) {
       throw new Exception(String.format("Character %c already in array", character));
     }
-    CharacterDescriptor descriptor = new CharacterDescriptor(grid, description, character);
+    CharacterDescriptor descriptor = new CharacterDescriptor(glyphStore, grid, description, character);
     descriptor.addObserver(this);
     characters.add(descriptor);
-    this.changed = true;
-    this.fireContentsChanged(this, this.characters.size()-1, this.characters.size());
-    RSLogger.getLogger().log(Level.INFO, String.format("new Character: %c", character));
+    this.index.put(character, characters.size()-1);
+    this.touch(descriptor);
+    this.recordOverride(descriptor);
+    if (this.updateDepth > 0) {
+      this.updateAdded += 1;
+    } else {
+      RSLogger.getLogger().log(Level.INFO, String.format("new Character: %c", character));
+    }
+    this.fireChanged(this.characters.size()-1, this.characters.size());
   }
   
   /**
@@ -263,42 +519,47 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
    */
   public void removeCharacter(int index)
   {
-    this.characters.remove(index);
-    this.fireContentsChanged(this, index-1, index);
+    CharacterDescriptor removed = this.characters.remove(index);
+    this.glyphStore.release(removed.getGrid());
+    this.index.remove(removed.getCodePoint());
+    if (this.changes.get(removed.getRevision()) == removed) {
+      this.changes.remove(removed.getRevision());
+    }
+    this.revision += 1;
+    this.removals.put(this.revision, removed.getCodePoint());
+    this.changed = true;
+    if (this.outlines != null) {
+      this.outlines.setOverride(removed.getCodePoint(), this.outlineSize, this.outlineThreshold, null);
+    }
+    for (int i=index; i<this.characters.size(); i+=1) {
+      this.index.put(this.characters.get(i).getCodePoint(), i);
+    }
+    this.fireChanged(index-1, index);
   }
   
   /**
-   * returns the position of the given character
-   * @param c the character value which position is returned
-   * @return the position of c
+   * rebuilds the index from the character list
    */
-  private int getCharacterPosition(char c) {
-    int position = -1;
-    for (CharacterDescriptor cDesc : this.characters) {
-      position += 1;
-      if (cDesc.getCharacter() == c) {
-        return position;
-      }
+  private void updateIndex() {
+    this.index.clear();
+    for (int i=0; i<this.characters.size(); i+=1) {
+      this.index.put(this.characters.get(i).getCodePoint(), i);
     }
-    
-    return -1;
   }
   
   /**
-   * sorts the character in ascending ascii value
-   * (from 0x20 to 0x7E)
+   * sorts the characters in ascending code point order, by walking the index
    */
   public void sort()
   {
-    ArrayList<CharacterDescriptor> sortedArray = new ArrayList<>();
-    for (char c=0x00; c<0xFF; c+=1) {
-      int pos = this.getCharacterPosition(c);
-      if (pos != -1) {
-        sortedArray.add(this.characters.get(pos));
-      }
+    ArrayList<CharacterDescriptor> sortedArray = this.getCharacters(0, Character.MAX_CODE_POINT + 1);
+    if (sortedArray.size() != this.characters.size()) {
+      // two characters share a code point, only one of them is in the index
+      sortedArray = new ArrayList<>(this.characters);
+      sortedArray.sort((a, b) -> Integer.compare(a.getCodePoint(), b.getCodePoint()));
     }
-    assert(sortedArray.size() == this.characters.size());
     this.characters = sortedArray;
+    this.updateIndex();
   }
 
   @Override
@@ -318,9 +579,145 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
     return characters;
   }
   
+  /**
+   * returns whether another character in this set has the same pixels
+   * @param c a character of this set
+   * @return true if the grid of c is shared with another character
+   */
+  public boolean isDuplicate(CharacterDescriptor c)
+  {
+    return this.glyphStore.getReferences(c.getGrid()) > 1;
+  }
+  
+  /**
+   * returns the outlines the characters are rendered from
+   * @return the outlines, null if the set has none
+   */
+  public GlyphOutlines getOutlines()
+  {
+    return this.outlines;
+  }
+  
+  /**
+   * returns the em size the outlines are rendered at
+   * @return the size in pixel, 0 if the set has no outlines
+   */
+  public int getOutlineSize()
+  {
+    return this.outlineSize;
+  }
+  
+  /**
+   * returns the threshold the outlines are rendered with
+   * @return the gray value (0 to 255) a pixel must be covered more than to be set
+   */
+  public int getOutlineThreshold()
+  {
+    return this.outlineThreshold;
+  }
+  
+  /**
+   * backs the characters by outlines, like a set rendered by
+   * GlyphOutlines.createSet. Every character with an outline whose grid
+   * differs from the rendered outline becomes an override of the size and
+   * threshold.
+   * @param outlines the outlines, null to drop them
+   * @param pixelSize the em size the characters are rendered at
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   */
+  public void setOutlines(GlyphOutlines outlines, int pixelSize, int threshold)
+  {
+    this.attachOutlines(outlines, pixelSize, threshold);
+    for (CharacterDescriptor c : this.characters) {
+      this.recordOverride(c);
+    }
+  }
+  
+  /**
+   * backs the characters by outlines whose overrides of the size and
+   * threshold are set already
+   */
+  void attachOutlines(GlyphOutlines outlines, int pixelSize, int threshold)
+  {
+    this.outlines = outlines;
+    this.outlineSize = outlines == null ? 0 : pixelSize;
+    this.outlineThreshold = outlines == null ? 0 : threshold;
+  }
+  
+  /**
+   * keeps the grid of a character as override if it differs from the
+   * rendered outline, or drops the override if it does not
+   */
+  private void recordOverride(CharacterDescriptor c)
+  {
+    if (this.outlines == null) {
+      return;
+    }
+    DataGrid rendered = this.outlines.renderOutline(c.getCodePoint(), this.outlineSize, this.outlineThreshold);
+    if (rendered != null) {
+      DataGrid grid = c.getGrid();
+      this.outlines.setOverride(c.getCodePoint(), this.outlineSize, this.outlineThreshold, grid.equals(rendered) ? null : grid);
+    }
+  }
+  
+  /**
+   * returns whether a character was edited to another grid than its outline
+   * @param c a character of this set
+   * @return true if the grid of c overrides the rendered outline
+   */
+  public boolean isOverridden(CharacterDescriptor c)
+  {
+    return this.outlines != null && this.outlines.getOverride(c.getCodePoint(), this.outlineSize, this.outlineThreshold) != null;
+  }
+  
+  /**
+   * drops the edits of a character, its grid is rendered from the outline again
+   * @param c a character of this set
+   * @throws Exception in case the character has no outline
+   */
+  public void revertToOutline(CharacterDescriptor c) throws Exception
+  {
+    DataGrid rendered = this.outlines == null ? null : this.outlines.renderOutline(c.getCodePoint(), this.outlineSize, this.outlineThreshold);
+    if (rendered == null) {
+      throw new Exception(String.format("Character 0x%X has no outline", c.getCodePoint()));
+    }
+    if (!c.getGrid().equals(rendered)) {
+      c.setGrid(rendered);
+    }
+  }
+  
+  /**
+   * renders the characters of this set at another size or threshold into a
+   * new set backed by the same outlines. The rasters cached are reused, the
+   * grids edited at the new size and threshold are kept. Characters without
+   * outline are not in the new set.
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @return the new character set
+   * @throws Exception in case the set has no outlines
+   */
+  public CharacterSet renderSize(int pixelSize, int threshold) throws Exception
+  {
+    if (this.outlines == null) {
+      throw new Exception(String.format("the character set %s has no outlines", this.fontName));
+    }
+    int codePoints[] = this.characters.stream().mapToInt(CharacterDescriptor::getCodePoint)
+            .filter((c) -> this.outlines.getOutline(c) != null).sorted().toArray();
+    return this.outlines.createSet(pixelSize, threshold, codePoints);
+  }
+  
+  /**
+   * returns the store holding the distinct grids of this set
+   * @return the glyph store
+   */
+  public GlyphStore getGlyphStore()
+  {
+    return this.glyphStore;
+  }
+  
   public void update(int index)
   {
-    this.fireContentsChanged(this, index-1, index);
+    this.fireChanged(index-1, index);
   }
   
   /**
@@ -335,10 +732,51 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
         break;
       }
     }
+    this.glyphStore = new GlyphStore();
     for (CharacterDescriptor cd : this.characters) {
       cd.addObserver(this);
+      cd.setStore(glyphStore);
+      cd.setRevision(0);
+    }
+    this.index = new CharacterIndex();
+    this.updateIndex();
+    this.resetRevisions();
+    this.changed = false;
+  }
+  
+  /**
+   * replaces all characters by characters read from a file. The grids have
+   * to be interned in the glyph store of this set already.
+   * @param loaded the characters in list order
+   * @throws Exception in case a code point is in the list twice
+   */
+  void setCharacters(ArrayList<CharacterDescriptor> loaded) throws Exception
+  {
+    CharacterIndex loadedIndex = new CharacterIndex();
+    for (int i=0; i<loaded.size(); i+=1) {
+      CharacterDescriptor cd = loaded.get(i);
+      if (loadedIndex.contains(cd.getCodePoint())) {
+        throw new Exception(String.format("Character 0x%X already in array", cd.getCodePoint()));
+      }
+      loadedIndex.put(cd.getCodePoint(), i);
+      // the width is taken like in addCharacter(int, String, DataGrid)
+      if (i == 0 && this.fontWidth == 0) {
+        this.fontWidth = cd.getWidth();
+      }
+      else if (cd.getWidth() != this.fontWidth) {
+        this.fontWidth = 0;
+        this.isVariableWidth = true;
+      }
+    }
+    for (CharacterDescriptor cd : loaded) {
+      cd.addObserver(this);
     }
+    int oldSize = this.characters.size();
+    this.characters = loaded;
+    this.index = loadedIndex;
+    this.resetRevisions();
     this.changed = false;
+    this.fireChanged(0, Math.max(oldSize, loaded.size()) - 1);
   }
   /*
   private void writeObject(java.io.ObjectOutputStream out) throws IOException
@@ -357,6 +795,19 @@ public class CharacterSet extends AbstractListModel<String> implements Serializa
   
   @Override
   public void update(Observable o, Object arg) {
+    if (arg instanceof Integer) {
+      // the code point changed, arg is the former value
+      int position = this.index.remove((Integer) arg);
+      if (position != -1) {
+        this.index.put(((CharacterDescriptor) o).getCodePoint(), position);
+      }
+      this.revision += 1;
+      this.removals.put(this.revision, (Integer) arg);
+    }
+    if (o instanceof CharacterDescriptor) {
+      this.touch((CharacterDescriptor) o);
+      this.recordOverride((CharacterDescriptor) o);
+    }
     this.changed = true;
   }
 }
@@ -0,0 +1,608 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import org.RSSoft.CharMaker.control.models.FontSettings;
+import org.RSSoft.CharMaker.core.DataGrid;
+import org.RSSoft.CharMaker.core.DataGridView;
+import org.RSSoft.CharMaker.core.GridArea;
+import org.RSSoft.CharMaker.core.TrimmedDataGrid;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * This class reads and writes a character set with its font settings as
+ * .cmfnt file. The file consists of
+ *  -a header: magic, version, font name and size, font settings
+ *  -the index: one record of fixed size per character with code point,
+ *   cell size, bounding box and the offsets of description and pixels
+ *  -the data: the descriptions that are not the default one, and the
+ *   pixels of the bounding boxes, bit packed, glyph after glyph
+ *  -optionally the glyph outlines the set is rendered from (flag
+ *   FLAG_OUTLINES in the header): the outlines, the size and threshold
+ *   rendered at and the code points of the characters edited by hand,
+ *   followed by the length of this section. Readers not knowing the flag
+ *   ignore the section.
+ * Characters with the same pixels share one payload, and only the bounding
+ * box of a glyph is stored.
+ * The file is read into memory in one piece, it is not mapped: a mapped file
+ * cannot be replaced on Windows, and the set is saved over the file it was
+ * read from. Only the index is decoded at once, grid and description of a
+ * character are decoded the first time they are used (see GlyphSource), so
+ * opening a large font takes milliseconds.
+ * Files written by former versions with java serialization are still read.
+ * @author Richard
+ */
+public class CharacterSetFile
+{
+  /**
+   * "CMFN"
+   */
+  public static final int MAGIC = 0x434D464E;
+  public static final int VERSION = 2;
+
+  private static final int SERIALIZATION_MAGIC = 0xACED;
+
+  /**
+   * the header flag of a file with an outline section
+   */
+  private static final int FLAG_OUTLINES = 1;
+
+  /**
+   * the number of ints of an index record: code point, width, height, left,
+   * top, box width, box height, description offset, pixel offset
+   */
+  private static final int RECORD_INTS = 9;
+  private static final int RECORD_SIZE = 4 * RECORD_INTS;
+
+  private final CharacterSet characterSet;
+  private final FontSettings fontSettings;
+  private final String fontName;
+  private final int fontWidth;
+  private final int fontHeight;
+  private final ArrayList<CharacterDescriptor> characters;
+  private final GlyphOutlines outlines;
+  private final int outlineSize;
+  private final int outlineThreshold;
+  private final int overridden[];
+
+  /**
+   * reads the characters of an index lazily from a buffer
+   */
+  private static class IndexedGlyphs implements GlyphSource
+  {
+    private final ByteBuffer buffer;
+    private final int indexStart;
+    private final int dataStart;
+
+    IndexedGlyphs(ByteBuffer buffer, int indexStart, int dataStart)
+    {
+      this.buffer = buffer;
+      this.indexStart = indexStart;
+      this.dataStart = dataStart;
+    }
+
+    int field(int index, int field)
+    {
+      return buffer.getInt(indexStart + index * RECORD_SIZE + 4 * field);
+    }
+
+    @Override
+    public DataGrid getGrid(int index)
+    {
+      int width = field(index, 1);
+      int height = field(index, 2);
+      int offset = field(index, 8);
+      if (offset < 0)
+        return DataGrid.empty(width, height);
+      try {
+        ByteBuffer pixels = buffer.duplicate();
+        pixels.position(dataStart + offset);
+        DataGrid box = DataGrid.readPixels(pixels, field(index, 5), field(index, 6)).makeImmutable();
+        return new TrimmedDataGrid(width, height, field(index, 3), field(index, 4), box).makeImmutable();
+      } catch (RuntimeException ex) {
+        RSLogger.getLogger().log(Level.SEVERE, String.format("cannot read the pixels of character 0x%X", field(index, 0)), ex);
+        return DataGrid.empty(width, height);
+      }
+    }
+
+    @Override
+    public String getDescription(int index)
+    {
+      int offset = field(index, 7);
+      if (offset >= 0)
+      {
+        try {
+          ByteBuffer text = buffer.duplicate();
+          text.position(dataStart + offset);
+          String description = readString(text);
+          if (description != null)
+            return description;
+        } catch (RuntimeException ex) {
+          RSLogger.getLogger().log(Level.SEVERE, String.format("cannot read the description of character 0x%X", field(index, 0)), ex);
+        }
+      }
+      return Char2Description.getDescription(field(index, 0));
+    }
+
+    @Override
+    public int getWidth(int index)
+    {
+      return field(index, 1);
+    }
+  }
+
+  /**
+   * construct a new file content. It is written from the character set
+   * itself, so it has to be written on the thread editing the set.
+   * @param characterSet the character set
+   * @param fontSettings the font settings, may be null
+   */
+  public CharacterSetFile(CharacterSet characterSet, FontSettings fontSettings)
+  {
+    this(characterSet, fontSettings, characterSet.getCharacters());
+  }
+
+  private CharacterSetFile(CharacterSet characterSet, FontSettings fontSettings, ArrayList<CharacterDescriptor> characters)
+  {
+    this.characterSet = characterSet;
+    this.fontSettings = fontSettings;
+    this.fontName = characterSet.getFontName();
+    this.fontWidth = characterSet.isVariableWidth() ? 0 : characterSet.getFontWidth();
+    this.fontHeight = characterSet.getFontHeight();
+    this.characters = characters;
+    this.outlines = characterSet.getOutlines();
+    this.outlineSize = characterSet.getOutlineSize();
+    this.outlineThreshold = characterSet.getOutlineThreshold();
+    this.overridden = outlines == null ? null : outlines.getOverridden(outlineSize, outlineThreshold);
+  }
+
+  /**
+   * returns a file content holding the current state of a character set.
+   * The grids are immutable and shared, characters not loaded yet are read
+   * from their file when the snapshot is written. The snapshot can be
+   * written on another thread while the set is changed.
+   * @param characterSet the character set
+   * @param fontSettings the font settings, are copied, may be null
+   * @return the snapshot
+   */
+  public static CharacterSetFile snapshot(CharacterSet characterSet, FontSettings fontSettings)
+  {
+    ArrayList<CharacterDescriptor> copies = new ArrayList<>(characterSet.getSize());
+    for (CharacterDescriptor c : characterSet.getCharacters())
+      copies.add(c.snapshot());
+    return new CharacterSetFile(characterSet, fontSettings == null ? null : new FontSettings(fontSettings), copies);
+  }
+
+  /**
+   * returns the character set
+   * @return the character set
+   */
+  public CharacterSet getCharacterSet()
+  {
+    return this.characterSet;
+  }
+
+  /**
+   * returns the font settings
+   * @return the font settings, null if the file did not contain any
+   */
+  public FontSettings getFontSettings()
+  {
+    return this.fontSettings;
+  }
+
+  /**
+   * writes the character set and the font settings to a file, see
+   * write(File, IntConsumer)
+   * @param toFile the file to write to
+   * @throws IOException in case of IO Error
+   */
+  public void write(File toFile) throws IOException
+  {
+    this.write(toFile, null);
+  }
+
+  /**
+   * writes the character set and the font settings to a file. The content
+   * is written to a temporary file first, which is forced to the disk and
+   * renamed to toFile, so a crash leaves either the old or the new file.
+   * @param toFile the file to write to
+   * @param progress receives the percentage of characters written, may be null
+   * @throws IOException in case of IO Error
+   */
+  public void write(File toFile, IntConsumer progress) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    this.write(new DataOutputStream(bytes), progress);
+    replaceFile(toFile, bytes.toByteArray());
+  }
+
+  /**
+   * replaces a file by a temporary file with the new content: the temporary
+   * file is forced to the disk and moved over the target in one step
+   * @param target the file to replace
+   * @param content the new content
+   * @throws IOException in case of IO Error
+   */
+  static void replaceFile(File target, byte content[]) throws IOException
+  {
+    File temp = new File(target.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(content);
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      channel.force(true);
+    }
+    try {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * writes the character set and the font settings
+   * @param out the stream to write to
+   * @throws IOException in case of IO Error
+   */
+  public void write(DataOutputStream out) throws IOException
+  {
+    this.write(out, null);
+  }
+
+  private void write(DataOutputStream out, IntConsumer progress) throws IOException
+  {
+    int percent = -1;
+
+    // the data section is collected first, the index holds offsets into it.
+    // Equal grids share one payload, they are compared by content as the
+    // grids of glyphs not loaded yet are not interned
+    ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(dataBytes);
+    HashMap<DataGrid, Integer> payloads = new HashMap<>();
+    int records[] = new int[RECORD_INTS * characters.size()];
+    for (int i = 0; i < characters.size(); i += 1)
+    {
+      CharacterDescriptor c = characters.get(i);
+      DataGrid grid = c.getGrid();
+      GridArea bounds = grid.getBounds();
+      int k = RECORD_INTS * i;
+      records[k] = c.getCodePoint();
+      records[k + 1] = grid.getXSize();
+      records[k + 2] = grid.getYSize();
+      records[k + 3] = bounds.xOffset;
+      records[k + 4] = bounds.yOffset;
+      records[k + 5] = bounds.xEnd;
+      records[k + 6] = bounds.yEnd;
+
+      // the default description is not stored
+      String description = c.getDescriptor();
+      if (description != null && !description.equals(Char2Description.getDescription(c.getCodePoint())))
+      {
+        records[k + 7] = data.size();
+        writeString(data, description);
+      }
+      else
+      {
+        records[k + 7] = -1;
+      }
+
+      Integer payload = payloads.get(grid);
+      if (payload == null)
+      {
+        payload = bounds.xEnd == 0 ? -1 : data.size();
+        if (bounds.xEnd != 0)
+          new DataGridView(grid, bounds).writePixels(data);
+        payloads.put(grid, payload);
+      }
+      records[k + 8] = payload;
+
+      if (progress != null && (100 * (i + 1)) / characters.size() != percent)
+      {
+        percent = (100 * (i + 1)) / characters.size();
+        progress.accept(percent);
+      }
+    }
+
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeShort(outlines == null ? 0 : FLAG_OUTLINES);
+    writeString(out, fontName);
+    out.writeInt(fontWidth);
+    out.writeInt(fontHeight);
+    writeSettings(out, fontSettings);
+    out.writeInt(characters.size());
+    for (int value : records)
+      out.writeInt(value);
+    dataBytes.writeTo(out);
+    if (outlines != null)
+      this.writeOutlines(out);
+    out.flush();
+  }
+
+  /**
+   * writes the outline section and its length
+   */
+  private void writeOutlines(DataOutputStream out) throws IOException
+  {
+    ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+    DataOutputStream section = new DataOutputStream(sectionBytes);
+    writeString(section, outlines.getFontName());
+    section.writeFloat(outlines.getAscent());
+    section.writeFloat(outlines.getDescent());
+    section.writeInt(outlineSize);
+    section.writeInt(outlineThreshold);
+    int codePoints[] = outlines.getCodePoints();
+    section.writeInt(codePoints.length);
+    for (int c : codePoints)
+    {
+      section.writeInt(c);
+      outlines.getOutline(c).write(section);
+    }
+    section.writeInt(overridden.length);
+    for (int c : overridden)
+      section.writeInt(c);
+    sectionBytes.writeTo(out);
+    out.writeInt(section.size());
+  }
+
+  /**
+   * reads a file written by write(File) or by former versions using
+   * java serialization. The file is read into a heap buffer, its characters
+   * are decoded when they are used.
+   * @param fromFile the file to read
+   * @return the content of the file
+   * @throws IOException in case of IO Error or an invalid file
+   */
+  public static CharacterSetFile read(File fromFile) throws IOException
+  {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(fromFile.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException(String.format("file %s is too big", fromFile.getName()));
+      // no mapping is kept, so the file can be replaced while the set is open
+      buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining())
+      {
+        if (channel.read(buffer) < 0)
+          throw new IOException(String.format("file %s is truncated", fromFile.getName()));
+      }
+      buffer.flip();
+    }
+    if (buffer.remaining() >= 2 && (buffer.getShort(0) & 0xFFFF) == SERIALIZATION_MAGIC)
+    {
+      try (InputStream in = new BufferedInputStream(new FileInputStream(fromFile))) {
+        return readSerialized(in);
+      }
+    }
+    return read(buffer);
+  }
+
+  /**
+   * reads the content written by write(DataOutputStream) from a buffer. The
+   * characters keep reading from the buffer until they are loaded.
+   * @param buffer the buffer to read from, starting at its position
+   * @return the content of the file
+   * @throws IOException in case of an invalid file
+   */
+  public static CharacterSetFile read(ByteBuffer buffer) throws IOException
+  {
+    try {
+      if (buffer.getInt() != MAGIC)
+        throw new IOException("not a character set file");
+      int version = buffer.getShort() & 0xFFFF;
+      if (version != VERSION)
+        throw new IOException(String.format("file version %d is not supported, %d is the latest", version, VERSION));
+      int flags = buffer.getShort() & 0xFFFF;
+      String fontName = readString(buffer);
+      int fontWidth = buffer.getInt();
+      int fontHeight = buffer.getInt();
+      FontSettings settings = readSettings(buffer);
+
+      CharacterSet set = new CharacterSet(fontWidth, fontHeight, fontName);
+      ArrayList<CharacterDescriptor> characters = readIndex(buffer, set.getGlyphStore());
+      try {
+        set.setCharacters(characters);
+      } catch (Exception ex) {
+        throw new IOException(ex.getMessage(), ex);
+      }
+      if ((flags & FLAG_OUTLINES) != 0)
+        readOutlines(buffer, set);
+      return new CharacterSetFile(set, settings);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+      throw new IOException("the file is truncated", ex);
+    }
+  }
+
+  /**
+   * reads the outline section at the end of the buffer and backs the set by
+   * the outlines, the characters edited by hand are loaded as overrides
+   */
+  private static void readOutlines(ByteBuffer buffer, CharacterSet set) throws IOException
+  {
+    int end = buffer.limit() - 4;
+    int length = buffer.getInt(end);
+    if (length < 0 || length > end - buffer.position())
+      throw new IOException(String.format("the outline section of %d bytes does not fit into the file", length));
+    ByteBuffer section = buffer.duplicate();
+    section.position(end - length);
+    section.limit(end);
+    String fontName = readString(section);
+    float ascent = section.getFloat();
+    float descent = section.getFloat();
+    int pixelSize = section.getInt();
+    int threshold = section.getInt();
+    int count = section.getInt();
+    HashMap<Integer, GlyphOutline> glyphs = new HashMap<>();
+    for (int i = 0; i < count; i += 1)
+    {
+      int c = section.getInt();
+      glyphs.put(c, GlyphOutline.read(section));
+    }
+    GlyphOutlines outlines = new GlyphOutlines(fontName, ascent, descent, glyphs);
+    int overrides = section.getInt();
+    for (int i = 0; i < overrides; i += 1)
+    {
+      CharacterDescriptor c = set.getCharacter(section.getInt());
+      if (c != null)
+        outlines.setOverride(c.getCodePoint(), pixelSize, threshold, c.getGrid());
+    }
+    set.attachOutlines(outlines, pixelSize, threshold);
+  }
+
+  /**
+   * reads the index, the characters are not loaded
+   */
+  private static ArrayList<CharacterDescriptor> readIndex(ByteBuffer buffer, GlyphStore store) throws IOException
+  {
+    int characterCount = buffer.getInt();
+    int indexStart = buffer.position();
+    if (characterCount < 0 || (long) characterCount * RECORD_SIZE > buffer.limit() - indexStart)
+      throw new IOException(String.format("the index of %d characters does not fit into the file", characterCount));
+    IndexedGlyphs source = new IndexedGlyphs(buffer.duplicate(), indexStart, indexStart + characterCount * RECORD_SIZE);
+    ArrayList<CharacterDescriptor> characters = new ArrayList<>(characterCount);
+    for (int i = 0; i < characterCount; i += 1)
+    {
+      characters.add(new CharacterDescriptor(store, source, i, source.field(i, 0)));
+    }
+    return characters;
+  }
+
+  /**
+   * reads a character set and the font settings serialized by former versions
+   */
+  private static CharacterSetFile readSerialized(InputStream in) throws IOException
+  {
+    ObjectInputStream ois = new ObjectInputStream(in);
+    CharacterSet charSet;
+    FontSettings settings = null;
+    try {
+      charSet = (CharacterSet) ois.readObject();
+      try {
+        settings = (FontSettings) ois.readObject();
+      } catch (IOException ex) {
+        RSLogger.getLogger().log(Level.INFO, "file was saved with an older version...", ex);
+      }
+    } catch (ClassNotFoundException | ClassCastException ex) {
+      throw new IOException("not a character set file", ex);
+    }
+    charSet.validate();
+    return new CharacterSetFile(charSet, settings);
+  }
+
+  private static void writeSettings(DataOutputStream out, FontSettings settings) throws IOException
+  {
+    out.writeBoolean(settings != null);
+    if (settings == null)
+      return;
+    out.writeInt(settings.rotation);
+    out.writeInt(settings.bitOrder);
+    out.writeInt(settings.endianOrder);
+    out.writeInt(settings.alignment);
+    out.writeBoolean(settings.mirrorHorizontal);
+    out.writeBoolean(settings.mirrorVertical);
+    out.writeBoolean(settings.commentPreview);
+    writeString(out, settings.fontName);
+    writeString(out, settings.dataType);
+    out.writeInt(settings.bits);
+    out.writeInt(settings.scanDirection);
+    out.writeBoolean(settings.organizedInColumns);
+    out.writeBoolean(settings.invert);
+  }
+
+  private static FontSettings readSettings(ByteBuffer buffer)
+  {
+    if (buffer.get() == 0)
+      return null;
+    FontSettings settings = new FontSettings();
+    settings.rotation = buffer.getInt();
+    settings.bitOrder = buffer.getInt();
+    settings.endianOrder = buffer.getInt();
+    settings.alignment = buffer.getInt();
+    settings.mirrorHorizontal = buffer.get() != 0;
+    settings.mirrorVertical = buffer.get() != 0;
+    settings.commentPreview = buffer.get() != 0;
+    settings.fontName = readString(buffer);
+    settings.dataType = readString(buffer);
+    settings.bits = buffer.getInt();
+    settings.scanDirection = buffer.getInt();
+    settings.organizedInColumns = buffer.get() != 0;
+    settings.invert = buffer.get() != 0;
+    return settings;
+  }
+
+  /**
+   * writes the length of the UTF-8 bytes of s as short and the bytes, null
+   * is written as length -1
+   */
+  static void writeString(DataOutputStream out, String s) throws IOException
+  {
+    if (s == null)
+    {
+      out.writeShort(-1);
+      return;
+    }
+    byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > Short.MAX_VALUE)
+      throw new IOException(String.format("the text %s... is too long", s.substring(0, 16)));
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer buffer)
+  {
+    int length = buffer.getShort();
+    if (length < 0)
+      return null;
+    String s;
+    if (buffer.hasArray())
+    {
+      s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    }
+    else
+    {
+      byte bytes[] = new byte[length];
+      buffer.get(bytes);
+      s = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return s;
+  }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import org.RSSoft.CharMaker.core.DataGrid;
+import org.RSSoft.CharMaker.core.DataGridView;
+import org.RSSoft.CharMaker.core.GridArea;
+import org.RSSoft.CharMaker.core.TrimmedDataGrid;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * This class keeps an append only journal of the unsaved changes of a
+ * character set next to its .cmfnt file (font.cmfnt.journal).
+ * Every call to append() writes the characters changed and the code points
+ * removed since the last call as one entry, so the cost is the size of the
+ * changes. An entry carries a checksum: an entry torn by a crash is dropped
+ * when the journal is replayed, the entries before it are kept.
+ * The journal is bound to the length and modification time of the font
+ * file. Opening the file again replays the journal to recover the changes,
+ * saving the file starts an empty journal. When the journal grows too much,
+ * it is rewritten holding only the current state of the changed characters.
+ * @author Richard
+ */
+public class CharacterSetJournal
+{
+  /**
+   * "CMJL"
+   */
+  public static final int MAGIC = 0x434D4A4C;
+  public static final int VERSION = 1;
+  public static final String EXTENSION = ".journal";
+
+  /**
+   * the journal is rewritten when it is bigger than twice its size after
+   * the last rewrite plus this number of bytes
+   */
+  private static final long COMPACT_SLACK = 64 * 1024;
+
+  private final File fontFile;
+  private final File journalFile;
+  private CharacterSet characterSet;
+  private FileChannel channel;
+  private long baseRevision;
+  private long journaledRevision;
+  private long compactedSize;
+
+  /**
+   * construct a journal for a font file, nothing is read or written yet
+   * @param fontFile the .cmfnt file of the character set
+   */
+  public CharacterSetJournal(File fontFile)
+  {
+    this.fontFile = fontFile;
+    this.journalFile = getJournalFile(fontFile);
+  }
+
+  /**
+   * returns the journal file of a font file
+   * @param fontFile the .cmfnt file
+   * @return the file with EXTENSION appended
+   */
+  public static File getJournalFile(File fontFile)
+  {
+    return new File(fontFile.getPath() + EXTENSION);
+  }
+
+  /**
+   * returns the character set file the journal belongs to
+   * @return the .cmfnt file
+   */
+  public File getFontFile()
+  {
+    return this.fontFile;
+  }
+  
+  /**
+   * returns the character set the journal is kept for
+   * @return the character set, null before open or reset
+   */
+  public CharacterSet getCharacterSet()
+  {
+    return this.characterSet;
+  }
+
+  /**
+   * starts the journal for a character set just read from the font file.
+   * An existing journal of that file is replayed into the set first, the
+   * recovered changes stay unsaved and are kept in the journal.
+   * @param set the character set read from the font file
+   * @return the number of recovered changes
+   * @throws IOException in case the journal cannot be written
+   */
+  public int open(CharacterSet set) throws IOException
+  {
+    this.close();
+    this.characterSet = set;
+    this.baseRevision = set.getRevision();
+    int recovered = 0;
+    if (journalFile.exists())
+    {
+      try {
+        recovered = this.replay(ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath())));
+      } catch (IOException ex) {
+        RSLogger.getLogger().log(Level.WARNING, String.format("cannot read journal %s", journalFile.getName()), ex);
+      }
+    }
+    this.rewrite();
+    return recovered;
+  }
+
+  /**
+   * starts an empty journal for a character set just written to the font file
+   * @param set the saved character set
+   * @throws IOException in case the journal cannot be written
+   */
+  public void reset(CharacterSet set) throws IOException
+  {
+    this.reset(set, set.getRevision());
+  }
+
+  /**
+   * starts the journal for a character set of which a snapshot was written
+   * to the font file, the changes made after the snapshot are kept
+   * @param set the saved character set
+   * @param revision the revision of the snapshot written
+   * @throws IOException in case the journal cannot be written
+   */
+  public void reset(CharacterSet set, long revision) throws IOException
+  {
+    this.close();
+    this.characterSet = set;
+    this.baseRevision = revision;
+    this.rewrite();
+  }
+
+  /**
+   * writes the changes of the character set since the last call as one
+   * entry and forces it to the disk
+   * @return true if there were changes to write
+   * @throws IOException in case of IO Error
+   */
+  public boolean append() throws IOException
+  {
+    if (channel == null || characterSet.getRevision() == journaledRevision)
+      return false;
+    ByteBuffer entry = this.encodeEntry(journaledRevision);
+    journaledRevision = characterSet.getRevision();
+    while (entry.hasRemaining())
+      channel.write(entry);
+    channel.force(false);
+    if (channel.size() > 2 * compactedSize + COMPACT_SLACK)
+      this.rewrite();
+    return true;
+  }
+
+  /**
+   * closes the journal, the file is kept for a later recovery
+   */
+  public void close()
+  {
+    if (channel != null)
+    {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        RSLogger.getLogger().log(Level.WARNING, null, ex);
+      }
+      channel = null;
+    }
+  }
+
+  /**
+   * closes the journal and deletes its file, the unsaved changes are dropped
+   */
+  public void delete()
+  {
+    this.close();
+    if (journalFile.exists() && !journalFile.delete())
+      RSLogger.getLogger().log(Level.WARNING, String.format("cannot delete journal %s", journalFile.getName()));
+  }
+
+  /**
+   * writes the journal anew: the header and one entry with all changes
+   * since the font file was read or written. The new journal replaces the
+   * old one by a rename, so a crash leaves either of them.
+   */
+  private void rewrite() throws IOException
+  {
+    this.close();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeShort(0);
+    out.writeLong(fontFile.length());
+    out.writeLong(fontFile.lastModified());
+    if (characterSet.getRevision() != baseRevision)
+    {
+      ByteBuffer entry = this.encodeEntry(baseRevision);
+      out.write(entry.array(), 0, entry.limit());
+    }
+    journaledRevision = characterSet.getRevision();
+
+    CharacterSetFile.replaceFile(journalFile, bytes.toByteArray());
+    channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    compactedSize = channel.size();
+  }
+
+  /**
+   * encodes the changes since a revision as entry: length, checksum and
+   * the removed code points followed by the changed characters
+   */
+  private ByteBuffer encodeEntry(long revision) throws IOException
+  {
+    ArrayList<Integer> removed = characterSet.getCodePointsRemovedSince(revision);
+    ArrayList<CharacterDescriptor> changed = characterSet.getCharactersChangedSince(revision);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeInt(0);
+    out.writeInt(removed.size());
+    for (int codePoint : removed)
+      out.writeInt(codePoint);
+    out.writeInt(changed.size());
+    for (CharacterDescriptor c : changed)
+    {
+      DataGrid grid = c.getGrid();
+      GridArea bounds = grid.getBounds();
+      out.writeInt(c.getCodePoint());
+      String description = c.getDescriptor();
+      boolean custom = description != null && !description.equals(Char2Description.getDescription(c.getCodePoint()));
+      CharacterSetFile.writeString(out, custom ? description : null);
+      out.writeInt(grid.getXSize());
+      out.writeInt(grid.getYSize());
+      out.writeInt(bounds.xOffset);
+      out.writeInt(bounds.yOffset);
+      out.writeInt(bounds.xEnd);
+      out.writeInt(bounds.yEnd);
+      if (bounds.xEnd != 0)
+        new DataGridView(grid, bounds).writePixels(out);
+    }
+
+    ByteBuffer entry = ByteBuffer.wrap(bytes.toByteArray());
+    CRC32 crc = new CRC32();
+    crc.update(entry.array(), 8, entry.limit() - 8);
+    entry.putInt(0, entry.limit() - 8);
+    entry.putInt(4, (int) crc.getValue());
+    return entry;
+  }
+
+  /**
+   * replays the entries of a journal into the character set
+   * @return the number of changes replayed
+   */
+  private int replay(ByteBuffer buffer) throws IOException
+  {
+    try {
+      if (buffer.getInt() != MAGIC)
+        throw new IOException("not a journal file");
+      int version = buffer.getShort() & 0xFFFF;
+      if (version > VERSION)
+        throw new IOException(String.format("journal version %d is not supported, %d is the latest", version, VERSION));
+      buffer.getShort();
+      long length = buffer.getLong();
+      long modified = buffer.getLong();
+      if (length != fontFile.length() || modified != fontFile.lastModified())
+      {
+        RSLogger.getLogger().log(Level.WARNING, String.format("journal %s does not belong to the current %s, it is not replayed",
+                                                              journalFile.getName(), fontFile.getName()));
+        return 0;
+      }
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("the journal header is truncated", ex);
+    }
+
+    int replayed = 0;
+    characterSet.beginUpdate();
+    try {
+      while (buffer.remaining() >= 8)
+      {
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+          break;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        if ((int) crc.getValue() != checksum)
+          break;
+        ByteBuffer entry = buffer.slice();
+        entry.limit(length);
+        buffer.position(buffer.position() + length);
+        replayed += this.replayEntry(entry);
+      }
+      if (buffer.hasRemaining())
+        RSLogger.getLogger().log(Level.WARNING, String.format("journal %s ends with an incomplete entry, it is dropped", journalFile.getName()));
+    } finally {
+      characterSet.commitUpdate();
+    }
+    return replayed;
+  }
+
+  private int replayEntry(ByteBuffer entry)
+  {
+    int replayed = 0;
+    int removals = entry.getInt();
+    for (int i = 0; i < removals; i += 1)
+    {
+      int position = characterSet.indexOf(entry.getInt());
+      if (position != -1)
+      {
+        characterSet.removeCharacter(position);
+        replayed += 1;
+      }
+    }
+    int changes = entry.getInt();
+    for (int i = 0; i < changes; i += 1)
+    {
+      int codePoint = entry.getInt();
+      String description = CharacterSetFile.readString(entry);
+      if (description == null)
+        description = Char2Description.getDescription(codePoint);
+      int width = entry.getInt();
+      int height = entry.getInt();
+      int left = entry.getInt();
+      int top = entry.getInt();
+      int boxWidth = entry.getInt();
+      int boxHeight = entry.getInt();
+      DataGrid grid;
+      if (boxWidth == 0)
+        grid = DataGrid.empty(width, height);
+      else
+        grid = new TrimmedDataGrid(width, height, left, top, DataGrid.readPixels(entry, boxWidth, boxHeight).makeImmutable()).makeImmutable();
+
+      CharacterDescriptor c = characterSet.getCharacter(codePoint);
+      try {
+        if (c == null)
+        {
+          characterSet.addCharacter(codePoint, description, grid);
+        }
+        else
+        {
+          if (!c.getGrid().equals(grid))
+            c.setGrid(grid);
+          if (!description.equals(c.getDescriptor()))
+            c.setDescription(description);
+        }
+        replayed += 1;
+      } catch (Exception ex) {
+        RSLogger.getLogger().log(Level.WARNING, null, ex);
+      }
+    }
+    return replayed;
+  }
+}
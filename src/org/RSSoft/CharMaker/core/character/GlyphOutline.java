@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.RSSoft.CharMaker.core.DataGrid;
+import org.RSSoft.CharMaker.core.GridArea;
+import org.RSSoft.CharMaker.core.ThresholdBinarizer;
+import org.RSSoft.CharMaker.core.TrimmedDataGrid;
+
+/**
+ * This class holds the outline of a glyph of a scalable font, in units of
+ * the em size with the origin on the baseline, and its advance. It is
+ * immutable, rasters of any size are rendered from it.
+ * @author Richard
+ */
+public class GlyphOutline
+{
+  private final Path2D.Float outline;
+  private final float advance;
+
+  /**
+   * construct a glyph outline
+   * @param outline the outline in em units, y pointing down, is copied
+   * @param advance the advance in em units
+   */
+  public GlyphOutline(Shape outline, float advance)
+  {
+    this.outline = new Path2D.Float(outline);
+    this.advance = advance;
+  }
+
+  /**
+   * returns the outline
+   * @return a copy of the outline in em units
+   */
+  public Shape getOutline()
+  {
+    return new Path2D.Float(outline);
+  }
+
+  /**
+   * returns the advance
+   * @return the advance in em units
+   */
+  public float getAdvance()
+  {
+    return this.advance;
+  }
+
+  /**
+   * the off-screen image of a worker thread, the glyphs rendered by a thread
+   * are drawn into it one after the other
+   */
+  private static class Canvas
+  {
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    /**
+     * fills an outline scaled to pixelSize with its origin at x and ascent,
+     * the image is cleared up to width and height
+     * @return the image, at least width wide and height high
+     */
+    BufferedImage fill(Shape outline, int pixelSize, int x, int ascent, int width, int height)
+    {
+      if (image == null || width > image.getWidth() || height > image.getHeight())
+      {
+        int oldWidth = image == null ? 0 : image.getWidth();
+        int oldHeight = image == null ? 0 : image.getHeight();
+        if (graphics != null)
+          graphics.dispose();
+        image = new BufferedImage(Math.max(width, 2 * oldWidth), Math.max(height, oldHeight), BufferedImage.TYPE_BYTE_GRAY);
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+      }
+      graphics.setTransform(new AffineTransform());
+      graphics.setColor(Color.BLACK);
+      graphics.fillRect(0, 0, width, height);
+      graphics.setColor(Color.WHITE);
+      graphics.translate(x, ascent);
+      graphics.scale(pixelSize, pixelSize);
+      graphics.fill(outline);
+      return image;
+    }
+  }
+
+  private static final ThreadLocal<Canvas> CANVAS = ThreadLocal.withInitial(Canvas::new);
+
+  /**
+   * renders the glyph anti-aliased into the image of the calling thread and
+   * sets the pixels covered more than the threshold. The cell starts at the
+   * ink left of the origin and ends at the advance or the ink past it.
+   * @param pixelSize the em size in pixel
+   * @param ascent the ascent in pixel, the row of the baseline
+   * @param height the height of the cell
+   * @param threshold the gray value (0 to 255) a pixel must exceed to be set
+   * @return a new immutable grid holding the bounding box of the set pixels
+   */
+  DataGrid render(int pixelSize, int ascent, int height, int threshold)
+  {
+    int advanceWidth = Math.round(advance * pixelSize);
+    Rectangle drawn = AffineTransform.getScaleInstance(pixelSize, pixelSize).createTransformedShape(outline).getBounds();
+    if (drawn.isEmpty())
+      return DataGrid.empty(Math.max(5, advanceWidth), height);
+    BufferedImage image = CANVAS.get().fill(outline, pixelSize, -drawn.x, ascent, drawn.width, height);
+    // the bounds of the outline may exceed the pixels set, the cell is sized from these
+    DataGrid pixels = DataGrid.convert(image.getRaster(), 0, 0, height, drawn.width, new ThresholdBinarizer(0, threshold));
+    GridArea ink = pixels.getBounds();
+    if (ink.xEnd == 0)
+      return DataGrid.empty(Math.max(5, advanceWidth), height);
+    int inkLeft = drawn.x + ink.xOffset;
+    int left = Math.min(0, inkLeft);
+    int width = Math.max(5, Math.max(advanceWidth, inkLeft + ink.xEnd) - left);
+    return new TrimmedDataGrid(width, height, drawn.x - left, 0, pixels).makeImmutable();
+  }
+
+  /**
+   * writes the glyph: advance, winding rule and the path segments
+   * @param out the stream to write to
+   * @throws IOException in case of IO Error
+   */
+  void write(DataOutputStream out) throws IOException
+  {
+    out.writeFloat(advance);
+    out.writeByte(outline.getWindingRule());
+    int segments = 0;
+    for (PathIterator it = outline.getPathIterator(null); !it.isDone(); it.next())
+      segments += 1;
+    out.writeInt(segments);
+    float coords[] = new float[6];
+    for (PathIterator it = outline.getPathIterator(null); !it.isDone(); it.next())
+    {
+      int type = it.currentSegment(coords);
+      out.writeByte(type);
+      for (int i = 0; i < 2 * points(type); i += 1)
+        out.writeFloat(coords[i]);
+    }
+  }
+
+  /**
+   * reads a glyph written by write(DataOutputStream)
+   * @param buffer the buffer to read from
+   * @return the glyph
+   * @throws IOException in case of an invalid segment
+   */
+  static GlyphOutline read(ByteBuffer buffer) throws IOException
+  {
+    float advance = buffer.getFloat();
+    int rule = buffer.get();
+    int segments = buffer.getInt();
+    if (segments < 0 || segments > buffer.remaining())
+      throw new IOException(String.format("an outline of %d segments does not fit into the file", segments));
+    Path2D.Float path = new Path2D.Float(rule, segments);
+    for (int i = 0; i < segments; i += 1)
+    {
+      int type = buffer.get();
+      switch (type)
+      {
+        case PathIterator.SEG_MOVETO: path.moveTo(buffer.getFloat(), buffer.getFloat()); break;
+        case PathIterator.SEG_LINETO: path.lineTo(buffer.getFloat(), buffer.getFloat()); break;
+        case PathIterator.SEG_QUADTO: path.quadTo(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()); break;
+        case PathIterator.SEG_CUBICTO: path.curveTo(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()); break;
+        case PathIterator.SEG_CLOSE: path.closePath(); break;
+        default: throw new IOException(String.format("invalid outline segment %d", type));
+      }
+    }
+    return new GlyphOutline(path, advance);
+  }
+
+  /**
+   * returns the number of points of a path segment
+   */
+  private static int points(int type)
+  {
+    switch (type)
+    {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO: return 1;
+      case PathIterator.SEG_QUADTO: return 2;
+      case PathIterator.SEG_CUBICTO: return 3;
+      default: return 0;
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.geom.AffineTransform;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import org.RSSoft.CharMaker.core.DataGrid;
+import org.RSSoft.CharMaker.util.RSLogger;
+
+/**
+ * This class holds the glyph outlines of a scalable font, shared by the
+ * character sets rendered from it at several sizes. A raster is rendered
+ * when it is requested and kept in a cache of the latest rasters (see
+ * OutlineRasterCache), so rendering a size again costs only the glyphs
+ * not cached. Grids edited by hand are kept as overrides per size,
+ * threshold and code point, they are returned instead of the rendered raster.
+ * @author Richard
+ */
+public class GlyphOutlines
+{
+  /**
+   * the font size the outlines are taken at, they are scaled to em units
+   */
+  private static final float REFERENCE_SIZE = 256;
+
+  /**
+   * the number of rasters kept by the cache of all outlines
+   */
+  private static final int CACHE_RASTERS = 1 << 15;
+  private static final OutlineRasterCache CACHE = new OutlineRasterCache(CACHE_RASTERS);
+
+  private final String fontName;
+  private final float ascent;
+  private final float descent;
+  private final HashMap<Integer, GlyphOutline> outlines;
+
+  /**
+   * the grids edited by hand, the key is the size above bit 41, the
+   * threshold in bits 32 to 40 and the code point in the lower 32 bit
+   */
+  private final HashMap<Long, DataGrid> overrides;
+
+  /**
+   * construct the outlines of a font
+   * @param fontName the name of the font
+   * @param ascent the ascent in em units
+   * @param descent the descent in em units
+   * @param outlines the outlines by code point, are copied
+   */
+  public GlyphOutlines(String fontName, float ascent, float descent, Map<Integer, GlyphOutline> outlines)
+  {
+    this.fontName = fontName;
+    this.ascent = ascent;
+    this.descent = descent;
+    this.outlines = new HashMap<>(outlines);
+    this.overrides = new HashMap<>();
+  }
+
+  /**
+   * takes the outlines of characters of a font. Code points the font has
+   * no glyph for are skipped.
+   * @param font the font, its size is ignored
+   * @param codePoints the code points
+   * @return the outlines
+   */
+  public static GlyphOutlines fromFont(Font font, int codePoints[])
+  {
+    Font reference = font.deriveFont(REFERENCE_SIZE);
+    // anti-aliased with fractional metrics, the outlines are not hinted
+    FontRenderContext context = new FontRenderContext(null, true, true);
+    AffineTransform toEm = AffineTransform.getScaleInstance(1 / REFERENCE_SIZE, 1 / REFERENCE_SIZE);
+    HashMap<Integer, GlyphOutline> outlines = new HashMap<>();
+    for (int c : codePoints)
+    {
+      if (!reference.canDisplay(c))
+        continue;
+      GlyphVector glyphs = reference.createGlyphVector(context, new String(Character.toChars(c)));
+      float advance = (float) glyphs.getGlyphPosition(glyphs.getNumGlyphs()).getX();
+      outlines.put(c, new GlyphOutline(toEm.createTransformedShape(glyphs.getOutline()), advance / REFERENCE_SIZE));
+    }
+    LineMetrics metrics = reference.getLineMetrics("Xg", context);
+    if (outlines.size() < codePoints.length)
+      RSLogger.getLogger().log(Level.WARNING, String.format("%d characters skipped, %s has no glyph for them",
+                                                            codePoints.length - outlines.size(), font.getFontName()));
+    return new GlyphOutlines(font.getFontName(), metrics.getAscent() / REFERENCE_SIZE, metrics.getDescent() / REFERENCE_SIZE, outlines);
+  }
+
+  /**
+   * returns the name of the font
+   * @return the font name
+   */
+  public String getFontName()
+  {
+    return this.fontName;
+  }
+
+  /**
+   * returns the ascent of the font
+   * @return the ascent in em units
+   */
+  public float getAscent()
+  {
+    return this.ascent;
+  }
+
+  /**
+   * returns the descent of the font
+   * @return the descent in em units
+   */
+  public float getDescent()
+  {
+    return this.descent;
+  }
+
+  /**
+   * returns the outline of a character
+   * @param codePoint the unicode code point
+   * @return the outline, null if the font has none
+   */
+  public GlyphOutline getOutline(int codePoint)
+  {
+    return outlines.get(codePoint);
+  }
+
+  /**
+   * returns the code points of the outlines
+   * @return the code points in ascending order
+   */
+  public int[] getCodePoints()
+  {
+    return outlines.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+  }
+
+  /**
+   * returns the row of the baseline at a size
+   * @param pixelSize the em size in pixel
+   * @return the ascent in pixel
+   */
+  public int getAscent(int pixelSize)
+  {
+    return Math.round(ascent * pixelSize);
+  }
+
+  /**
+   * returns the height of the cells at a size, at least 5 like the cells of
+   * imported fonts
+   * @param pixelSize the em size in pixel
+   * @return the height in pixel
+   */
+  public int getHeight(int pixelSize)
+  {
+    return Math.max(5, this.getAscent(pixelSize) + Math.round(descent * pixelSize));
+  }
+
+  /**
+   * returns the grid of a character at a size: the override if the grid was
+   * edited at this size and threshold, the rendered outline otherwise
+   * @param codePoint the unicode code point
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @return the immutable grid, null if the font has no outline for codePoint
+   */
+  public DataGrid render(int codePoint, int pixelSize, int threshold)
+  {
+    DataGrid override = this.getOverride(codePoint, pixelSize, threshold);
+    return override != null ? override : this.renderOutline(codePoint, pixelSize, threshold);
+  }
+
+  /**
+   * returns the rendered outline of a character, from the cache if it holds it
+   * @return the immutable grid, null if the font has no outline for codePoint
+   */
+  DataGrid renderOutline(int codePoint, int pixelSize, int threshold)
+  {
+    GlyphOutline outline = outlines.get(codePoint);
+    if (outline == null)
+      return null;
+    DataGrid raster = CACHE.get(outline, pixelSize, threshold);
+    if (raster == null)
+    {
+      raster = outline.render(pixelSize, this.getAscent(pixelSize), this.getHeight(pixelSize), threshold);
+      CACHE.put(outline, pixelSize, threshold, raster);
+    }
+    return raster;
+  }
+
+  private static long key(int codePoint, int pixelSize, int threshold)
+  {
+    // thresholds below 0 set every pixel and over 254 none, like -1 and 255
+    long level = Math.min(Math.max(threshold, -1), 255) + 1;
+    return ((long) pixelSize << 41) | (level << 32) | (codePoint & 0xFFFFFFFFL);
+  }
+
+  /**
+   * returns the grid a character was edited to at a size and threshold
+   * @param codePoint the unicode code point
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @return the grid, null if the character was not edited at this size and threshold
+   */
+  public synchronized DataGrid getOverride(int codePoint, int pixelSize, int threshold)
+  {
+    return overrides.get(key(codePoint, pixelSize, threshold));
+  }
+
+  /**
+   * sets the grid a character was edited to at a size and threshold
+   * @param codePoint the unicode code point
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @param grid the immutable grid, null to render the outline again
+   */
+  public synchronized void setOverride(int codePoint, int pixelSize, int threshold, DataGrid grid)
+  {
+    if (grid == null)
+      overrides.remove(key(codePoint, pixelSize, threshold));
+    else
+      overrides.put(key(codePoint, pixelSize, threshold), grid);
+  }
+
+  /**
+   * returns the code points of the characters edited at a size and threshold
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @return the code points in ascending order
+   */
+  public synchronized int[] getOverridden(int pixelSize, int threshold)
+  {
+    long prefix = key(0, pixelSize, threshold) >>> 32;
+    return overrides.keySet().stream().filter((k) -> (k >>> 32) == prefix).mapToInt((k) -> (int) (long) k).sorted().toArray();
+  }
+
+  /**
+   * renders all characters of the font into a new character set
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @return a character set of variable width backed by these outlines
+   */
+  public CharacterSet createSet(int pixelSize, int threshold)
+  {
+    return this.createSet(pixelSize, threshold, this.getCodePoints());
+  }
+
+  /**
+   * renders characters of the font into a new character set. The rasters
+   * not cached are rendered in parallel, the overrides of the size and
+   * threshold are kept.
+   * Code points without outline are skipped.
+   * @param pixelSize the em size in pixel
+   * @param threshold the gray value (0 to 255) a pixel must be covered more than to be set
+   * @param codePoints the code points to render
+   * @return a character set of variable width backed by these outlines
+   */
+  public CharacterSet createSet(int pixelSize, int threshold, int codePoints[])
+  {
+    DataGrid grids[] = new DataGrid[codePoints.length];
+    IntStream.range(0, codePoints.length).parallel().forEach((i) -> {
+      grids[i] = this.render(codePoints[i], pixelSize, threshold);
+    });
+
+    CharacterSet charSet = new CharacterSet(0, this.getHeight(pixelSize), fontName);
+    int skipped = charSet.addCharacters(codePoints, grids, codePoints.length);
+    charSet.attachOutlines(this, pixelSize, threshold);
+    if (skipped > 0)
+      RSLogger.getLogger().log(Level.WARNING, String.format("%d characters skipped, %s has no outline for them", skipped, fontName));
+    return charSet;
+  }
+}
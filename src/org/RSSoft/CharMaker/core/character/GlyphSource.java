@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import org.RSSoft.CharMaker.core.DataGrid;
+
+/**
+ * This interface gives the grid and description of characters that are not
+ * loaded yet, like the characters of a character set file. A
+ * CharacterDescriptor asks for them the first time they are used.
+ * @author Richard
+ */
+interface GlyphSource
+{
+  /**
+   * returns the grid of a character
+   * @param index the number of the character in the source
+   * @return the grid, is interned by the caller
+   */
+  DataGrid getGrid(int index);
+
+  /**
+   * returns the description of a character
+   * @param index the number of the character in the source
+   * @return the description
+   */
+  String getDescription(int index);
+
+  /**
+   * returns the width of the grid of a character without loading it
+   * @param index the number of the character in the source
+   * @return the width in pixel
+   */
+  int getWidth(int index);
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.util.HashMap;
+import org.RSSoft.CharMaker.core.DataGrid;
+
+/**
+ * This class interns the grids of a character set: all characters with the
+ * same size and pixels share one immutable DataGrid. The grids are hashed by
+ * their content, and a reference count removes a grid from the store once no
+ * character uses it anymore.
+ * @author Richard
+ */
+public class GlyphStore
+{
+  private final HashMap<DataGrid, Entry> grids;
+
+  private static class Entry
+  {
+    final DataGrid grid;
+    int references;
+
+    Entry(DataGrid grid)
+    {
+      this.grid = grid;
+      this.references = 0;
+    }
+  }
+
+  /**
+   * construct a new empty store
+   */
+  public GlyphStore()
+  {
+    this.grids = new HashMap<>();
+  }
+
+  /**
+   * returns the shared immutable grid with the same pixels as the given grid
+   * and counts one more reference to it. If the store holds no such grid yet,
+   * an immutable copy of grid is added (or grid itself, if it is immutable already).
+   * @param grid the grid to look up, is not changed
+   * @return the shared grid
+   */
+  public DataGrid intern(DataGrid grid)
+  {
+    Entry entry = grids.get(grid);
+    if (entry == null)
+    {
+      DataGrid shared = grid.isImmutable() ? grid : grid.copy().makeImmutable();
+      entry = new Entry(shared);
+      grids.put(shared, entry);
+    }
+    entry.references += 1;
+    return entry.grid;
+  }
+
+  /**
+   * counts one reference less to the given grid, the grid is removed from
+   * the store when it is not referenced anymore
+   * @param grid a grid returned by intern(DataGrid)
+   */
+  public void release(DataGrid grid)
+  {
+    Entry entry = grids.get(grid);
+    if (entry != null)
+    {
+      entry.references -= 1;
+      if (entry.references <= 0)
+        grids.remove(grid);
+    }
+  }
+
+  /**
+   * returns how many characters use a grid with the same pixels
+   * @param grid the grid to look up
+   * @return the number of references, 0 if the grid is not in the store
+   */
+  public int getReferences(DataGrid grid)
+  {
+    Entry entry = grids.get(grid);
+    return entry == null ? 0 : entry.references;
+  }
+
+  /**
+   * returns the number of distinct grids in the store
+   * @return the number of distinct grids
+   */
+  public int getSize()
+  {
+    return grids.size();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Richard Schorrig.
+ * richard.schorrig@web.de
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.RSSoft.CharMaker.core.character;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.RSSoft.CharMaker.core.DataGrid;
+
+/**
+ * This class keeps the latest rendered rasters of glyph outlines, keyed by
+ * outline, size and threshold. It holds at most a fixed number of rasters,
+ * the least recently used one is dropped first. The rasters are immutable,
+ * so they are shared by all character sets rendered from the outlines.
+ * The cache can be used by several threads at once.
+ * @author Richard
+ */
+class OutlineRasterCache
+{
+  private final LinkedHashMap<Key, DataGrid> rasters;
+
+  private static class Key
+  {
+    final GlyphOutline outline;
+    final int pixelSize;
+    final int threshold;
+
+    Key(GlyphOutline outline, int pixelSize, int threshold)
+    {
+      this.outline = outline;
+      this.pixelSize = pixelSize;
+      this.threshold = threshold;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key))
+        return false;
+      Key other = (Key) o;
+      return outline == other.outline && pixelSize == other.pixelSize && threshold == other.threshold;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (System.identityHashCode(outline) * 31 + pixelSize) * 31 + threshold;
+    }
+  }
+
+  /**
+   * construct an empty cache
+   * @param capacity the number of rasters kept
+   */
+  OutlineRasterCache(int capacity)
+  {
+    this.rasters = new LinkedHashMap<Key, DataGrid>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, DataGrid> eldest)
+      {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * returns a cached raster
+   * @return the raster, null if it is not cached
+   */
+  synchronized DataGrid get(GlyphOutline outline, int pixelSize, int threshold)
+  {
+    return rasters.get(new Key(outline, pixelSize, threshold));
+  }
+
+  /**
+   * adds a raster, the least recently used one is dropped if the cache is full
+   */
+  synchronized void put(GlyphOutline outline, int pixelSize, int threshold, DataGrid raster)
+  {
+    rasters.put(new Key(outline, pixelSize, threshold), raster);
+  }
+
+  /**
+   * returns the number of cached rasters
+   * @return the number of rasters
+   */
+  synchronized int getSize()
+  {
+    return rasters.size();
+  }
+}
@@ -38,10 +38,11 @@ public class RSLogger
   
   /**
    * returns the instance logger.
-   * If instance is not available yet, it will be initialized and returned
+   * If instance is not available yet, it will be initialized and returned,
+   * the logger is used by the import and save threads as well
    * @return 
    */
-  public static Logger getLogger()
+  public static synchronized Logger getLogger()
   {
     if (instance == null)
     {
@@ -399,25 +399,7 @@ public class GridPane extends JPanel implements KeyListener
   private void fillAllGrid(Graphics2D g2)
   {
     g2.setColor(Color.black);
-    
-    int xPos = 0;
-    int yPos = 0;
-    for (boolean arr[] : grid.getArray())
-    {      
-      for (boolean b : arr)
-      {
-        if (b)
-        {
-          rectangle.setFrame(stepSize*xPos, stepSize*yPos, stepSize, stepSize);
-          g2.fill(rectangle);
-          g2.draw(rectangle);
-        }
-
-        yPos += 1;
-      }
-      xPos += 1;
-      yPos = 0;
-    }
+    fillGrid(g2, grid, 0, 0);
   }
   
   private void fillAllCopyGrid(Graphics2D g2)
@@ -427,25 +409,24 @@ public class GridPane extends JPanel implements KeyListener
       return;
     }
     g2.setColor(Color.black);
-    
-    int xPos = 0;
-    int yPos = 0;
-    for (boolean arr[] : copyGrid.getArray())
-    {      
-      for (boolean b : arr)
-      {
-        if (b)
-        {
-          rectangle.setFrame(stepSize*(xPos + startFillGrid.x), stepSize*(yPos + startFillGrid.y), stepSize, stepSize);
-          g2.fill(rectangle);
-          g2.draw(rectangle);
-        }
-
-        yPos += 1;
-      }
-      xPos += 1;
-      yPos = 0;
-    }
+    fillGrid(g2, copyGrid, startFillGrid.x, startFillGrid.y);
+  }
+  
+  /**
+   * draws all set pixels of a grid, each run of set pixels in a row is drawn
+   * as one rectangle
+   * @param g2 the graphics to draw on
+   * @param dGrid the grid to draw
+   * @param xOffset the x position of the grid in this pane
+   * @param yOffset the y position of the grid in this pane
+   */
+  private void fillGrid(Graphics2D g2, DataGrid dGrid, int xOffset, int yOffset)
+  {
+    dGrid.forEachSpan((y, xStart, xEnd) -> {
+      rectangle.setFrame(stepSize*(xStart + xOffset), stepSize*(y + yOffset), stepSize*(xEnd - xStart), stepSize);
+      g2.fill(rectangle);
+      g2.draw(rectangle);
+    });
   }
   
     private void paintGrid()